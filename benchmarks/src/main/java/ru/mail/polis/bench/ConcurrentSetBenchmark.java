@@ -0,0 +1,106 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.mail.polis.ISet;
+
+/**
+ * Throughput of one set shared by all benchmark threads, run with {@code -t 1}, {@code -t 8}, {@code -t 32} ...
+ * {@code writePercent} of operations are remove + add of a present key, the rest are contains.
+ * Whether an operation writes is drawn independently of its key, so under ZIPFIAN hot keys are
+ * read and written in the same proportion as the rest.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class ConcurrentSetBenchmark {
+
+    @Param({"CONCURRENT_CHAIN", "SYNCHRONIZED_CHAIN", "JDK_CONCURRENT_HASH", "SKIP_LIST", "SYNCHRONIZED_AVL",
+            "CONCURRENT_AVL"})
+    public SetType type;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"5", "50"})
+    public int writePercent;
+
+    private Comparable[] keys;
+    private ISet set;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = distribution.keys(size, new Random(42));
+        set = type.create();
+        for (Comparable key : keys) {
+            set.add(key);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Probes {
+        private int[] probes;
+        /**
+         * writes[i] - whether the i-th operation is a write, drawn from the same per-thread random
+         * sequence as the keys but independently of them
+         */
+        private boolean[] writes;
+        private int cursor;
+        private boolean write;
+
+        @Setup(Level.Trial)
+        public void setUp(ConcurrentSetBenchmark benchmark) {
+            Random random = new Random(ThreadLocalRandom.current().nextLong());
+            probes = benchmark.distribution.probes(benchmark.size, 1 << 16, random);
+            writes = new boolean[probes.length];
+            for (int i = 0; i < writes.length; i++) {
+                writes[i] = random.nextInt(100) < benchmark.writePercent;
+            }
+        }
+
+        int next() {
+            int probe = probes[cursor];
+            write = writes[cursor];
+            cursor = (cursor + 1) & (probes.length - 1);
+            return probe;
+        }
+
+        /**
+         * @return whether the operation on the key last returned by {@link #next()} is a write
+         */
+        boolean isWrite() {
+            return write;
+        }
+    }
+
+    @Benchmark
+    public boolean mixed(Probes probes) {
+        Comparable key = keys[probes.next()];
+        if (probes.isWrite()) {
+            return set.remove(key) | set.add(key);
+        }
+        return set.contains(key);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis.bench;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ru.mail.polis.ISet;
+
+/**
+ * {@link ConcurrentHashMap#newKeySet()} behind the {@link ISet} interface, used as a baseline in benchmarks.
+ */
+public class JdkConcurrentHashSet<E extends Comparable<E>> implements ISet<E> {
+
+    private final Set<E> set = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        return set.add(value);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        return set.remove(value);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis.bench;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import ru.mail.polis.ISet;
+
+/**
+ * {@link HashSet} behind the {@link ISet} interface, used as a baseline in benchmarks.
+ */
+public class JdkHashSet<E extends Comparable<E>> implements ISet<E> {
+
+    private final Set<E> set = new HashSet<>();
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        return set.add(value);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        return set.remove(value);
+    }
+}
@@ -0,0 +1,122 @@
+package ru.mail.polis.bench;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Spliterator;
+import java.util.TreeSet;
+
+import ru.mail.polis.ISortedSet;
+
+/**
+ * {@link TreeSet} behind the {@link ISortedSet} interface, used as a baseline in benchmarks.
+ */
+public class JdkTreeSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private final NavigableSet<E> set;
+
+    public JdkTreeSet() {
+        this(new TreeSet<>());
+    }
+
+    private JdkTreeSet(NavigableSet<E> set) {
+        this.set = set;
+    }
+
+    @Override
+    public E first() {
+        return set.first();
+    }
+
+    @Override
+    public E last() {
+        return set.last();
+    }
+
+    @Override
+    public E floor(E value) {
+        return set.floor(value);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return set.ceiling(value);
+    }
+
+    @Override
+    public E higher(E value) {
+        return set.higher(value);
+    }
+
+    @Override
+    public E lower(E value) {
+        return set.lower(value);
+    }
+
+    @Override
+    public ISortedSet<E> subSet(E fromElement, E toElement) {
+        return new JdkTreeSet<>(set.subSet(fromElement, true, toElement, false));
+    }
+
+    @Override
+    public ISortedSet<E> headSet(E toElement) {
+        return new JdkTreeSet<>(set.headSet(toElement, false));
+    }
+
+    @Override
+    public ISortedSet<E> tailSet(E fromElement) {
+        return new JdkTreeSet<>(set.tailSet(fromElement, true));
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return set.comparator();
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        return new ArrayList<>(set);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return set.iterator();
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        return set.tailSet(fromElement, true).iterator();
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return set.spliterator();
+    }
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        return set.add(value);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        return set.remove(value);
+    }
+}
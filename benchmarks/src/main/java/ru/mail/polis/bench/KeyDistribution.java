@@ -0,0 +1,141 @@
+package ru.mail.polis.bench;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * How benchmark keys are generated and in which order they are probed.
+ * <ul>
+ *     <li>SEQUENTIAL - keys 0..n-1 inserted and probed in ascending order;</li>
+ *     <li>UNIFORM - distinct random ints, probed uniformly;</li>
+ *     <li>ZIPFIAN - distinct random ints, probed with Zipf skew (a few hot keys);</li>
+ *     <li>STRING - distinct random lowercase strings, probed uniformly.</li>
+ * </ul>
+ */
+public enum KeyDistribution {
+    SEQUENTIAL,
+    UNIFORM,
+    ZIPFIAN,
+    STRING;
+
+    private static final double ZIPF_THETA = 0.99;
+    private static final int STRING_MIN_LENGTH = 6;
+    private static final int STRING_MAX_LENGTH = 12;
+
+    /**
+     * @return {@code n} distinct keys in insertion order
+     */
+    public Comparable<?>[] keys(int n, Random random) {
+        Comparable<?>[] keys = new Comparable<?>[n];
+        switch (this) {
+            case SEQUENTIAL:
+                for (int i = 0; i < n; i++) {
+                    keys[i] = i;
+                }
+                break;
+            case UNIFORM:
+            case ZIPFIAN: {
+                Set<Integer> seen = new HashSet<>();
+                for (int i = 0; i < n; ) {
+                    int key = random.nextInt();
+                    if (seen.add(key)) {
+                        keys[i++] = key;
+                    }
+                }
+                break;
+            }
+            case STRING: {
+                Set<String> seen = new HashSet<>();
+                for (int i = 0; i < n; ) {
+                    String key = randomString(random);
+                    if (seen.add(key)) {
+                        keys[i++] = key;
+                    }
+                }
+                break;
+            }
+            default:
+                throw new AssertionError(this);
+        }
+        return keys;
+    }
+
+    /**
+     * @return {@code count} indexes into the key array, in probe order
+     */
+    public int[] probes(int n, int count, Random random) {
+        int[] probes = new int[count];
+        switch (this) {
+            case SEQUENTIAL:
+                for (int i = 0; i < count; i++) {
+                    probes[i] = i % n;
+                }
+                break;
+            case UNIFORM:
+            case STRING:
+                for (int i = 0; i < count; i++) {
+                    probes[i] = random.nextInt(n);
+                }
+                break;
+            case ZIPFIAN: {
+                Zipf zipf = new Zipf(n, ZIPF_THETA);
+                for (int i = 0; i < count; i++) {
+                    probes[i] = zipf.next(random);
+                }
+                break;
+            }
+            default:
+                throw new AssertionError(this);
+        }
+        return probes;
+    }
+
+    private static String randomString(Random random) {
+        int length = STRING_MIN_LENGTH + random.nextInt(STRING_MAX_LENGTH - STRING_MIN_LENGTH + 1);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Zipf generator over [0, n) from Gray et al., "Quickly Generating Billion-Record Synthetic Databases".
+     */
+    private static final class Zipf {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        Zipf(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(n, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+
+        int next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, n - 1);
+            }
+            return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
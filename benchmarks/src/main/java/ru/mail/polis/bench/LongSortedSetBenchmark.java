@@ -0,0 +1,101 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.mail.polis.ISet;
+import ru.mail.polis.LongAVLTree;
+import ru.mail.polis.LongRedBlackTree;
+import ru.mail.polis.LongSortedSet;
+
+/**
+ * Primitive {@link LongSortedSet} trees against the boxed {@code ISet<Long>} ones on random long keys.
+ * {@code LONG_*} types go through the primitive API, the rest are {@link SetType} names.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class LongSortedSetBenchmark {
+
+    private static final int PROBES = 1 << 16;
+
+    @Param({"LONG_AVL", "LONG_RB", "AVL", "RB", "JDK_TREE"})
+    public String type;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private long[] keys;
+    private int[] probes;
+    private LongSortedSet primitive;
+    private ISet boxed;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = random.nextLong();
+        }
+        probes = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = random.nextInt(size);
+        }
+        if (type.equals("LONG_AVL")) {
+            primitive = new LongAVLTree();
+        } else if (type.equals("LONG_RB")) {
+            primitive = new LongRedBlackTree();
+        } else {
+            boxed = SetType.valueOf(type).create();
+        }
+        for (long key : keys) {
+            if (primitive != null) {
+                primitive.add(key);
+            } else {
+                boxed.add(key);
+            }
+        }
+    }
+
+    private long nextKey() {
+        long key = keys[probes[cursor]];
+        cursor = (cursor + 1) & (PROBES - 1);
+        return key;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        long key = nextKey();
+        return primitive != null ? primitive.contains(key) : boxed.contains(key);
+    }
+
+    /**
+     * Removes a present key and puts it back, so the set size stays constant.
+     */
+    @Benchmark
+    public boolean removeAdd() {
+        long key = nextKey();
+        if (primitive != null) {
+            return primitive.remove(key) & primitive.add(key);
+        }
+        return boxed.remove(key) & boxed.add(key);
+    }
+}
@@ -0,0 +1,127 @@
+package ru.mail.polis.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.mail.polis.ISet;
+
+/**
+ * add / contains / remove throughput for every {@link ISet} implementation.
+ * Allocation rate is reported with {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class SetBenchmark {
+
+    private static final int PROBES = 1 << 16;
+    private static final int BATCH = 1024;
+
+    @Param({"AVL", "PERSISTENT_AVL", "RB", "COMPACT_RB", "BST", "SCAPEGOAT_BST", "BTREE", "SPLAY", "CHAIN", "OPEN", "CUCKOO",
+            "SWISS", "JDK_TREE", "JDK_HASH"})
+    public SetType type;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN", "STRING"})
+    public KeyDistribution distribution;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private Comparable[] keys;
+    private int[] probes;
+    private ISet set;
+    private int cursor;
+    private List sortedBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (type == SetType.ALPHA_STRING && distribution != KeyDistribution.STRING) {
+            throw new IllegalArgumentException(type + " only holds String keys");
+        }
+        Random random = new Random(42);
+        keys = distribution.keys(size, random);
+        probes = distribution.probes(size, PROBES, random);
+        set = fill();
+        Comparable[] sample = new Comparable[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            sample[i] = keys[probes[i]];
+        }
+        sortedBatch = new ArrayList<>(new TreeSet<>(Arrays.asList(sample)));
+    }
+
+    private ISet fill() {
+        ISet set = type.create();
+        for (Comparable key : keys) {
+            set.add(key);
+        }
+        return set;
+    }
+
+    private Comparable nextKey() {
+        Comparable key = keys[probes[cursor]];
+        cursor = (cursor + 1) & (PROBES - 1);
+        return key;
+    }
+
+    /**
+     * Builds a set of {@code size} keys from scratch, including every resize / rebalance.
+     */
+    @Benchmark
+    public ISet addAll() {
+        return fill();
+    }
+
+    /**
+     * Same as {@link #addAll()}, but with one {@code ISet.addAll} call, which lets hash tables pre-size once.
+     */
+    @Benchmark
+    public ISet batchAddAll() {
+        ISet set = type.create();
+        set.addAll(Arrays.asList(keys));
+        return set;
+    }
+
+    /**
+     * {@code ISet.containsAll} of {@value #BATCH} probe keys in ascending order: finger search in AVL / RB.
+     */
+    @Benchmark
+    public BitSet containsAllSorted() {
+        return set.containsAll(sortedBatch);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.contains(nextKey());
+    }
+
+    /**
+     * Removes a present key and puts it back, so the set size stays constant.
+     */
+    @Benchmark
+    public boolean removeAdd() {
+        Comparable key = nextKey();
+        return set.remove(key) & set.add(key);
+    }
+}
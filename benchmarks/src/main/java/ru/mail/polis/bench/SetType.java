@@ -0,0 +1,66 @@
+package ru.mail.polis.bench;
+
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.AlphaStringHashSet;
+import ru.mail.polis.BPlusTree;
+import ru.mail.polis.BinarySearchTree;
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.CompactRedBlackTree;
+import ru.mail.polis.ConcurrentAVLTree;
+import ru.mail.polis.ConcurrentChainHashTable;
+import ru.mail.polis.ConcurrentSkipListSortedSet;
+import ru.mail.polis.CuckooHashTable;
+import ru.mail.polis.ISet;
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.RedBlackTree;
+import ru.mail.polis.SplayTree;
+import ru.mail.polis.SwissHashTable;
+
+/**
+ * Set implementations under benchmark. Names are used as JMH {@code @Param} values.
+ */
+@SuppressWarnings("rawtypes")
+public enum SetType {
+    AVL(true, AVLTree::new),
+    RB(true, RedBlackTree::new),
+    COMPACT_RB(true, CompactRedBlackTree::new),
+    BST(true, BinarySearchTree::new),
+    SCAPEGOAT_BST(true, BinarySearchTree::scapegoat),
+    BTREE(true, BPlusTree::new),
+    SPLAY(true, SplayTree::new),
+    CHAIN(false, ChainHashTable::new),
+    OPEN(false, OpenHashTable::new),
+    CUCKOO(false, CuckooHashTable::new),
+    SWISS(false, SwissHashTable::new),
+    /**
+     * String keys only: use with {@code -p distribution=STRING}.
+     */
+    ALPHA_STRING(false, AlphaStringHashSet::new),
+    JDK_TREE(true, JdkTreeSet::new),
+    JDK_HASH(false, JdkHashSet::new),
+    CONCURRENT_CHAIN(false, ConcurrentChainHashTable::new),
+    SYNCHRONIZED_CHAIN(false, () -> new SynchronizedSet<String>(new ChainHashTable<>())),
+    JDK_CONCURRENT_HASH(false, JdkConcurrentHashSet::new),
+    SKIP_LIST(true, ConcurrentSkipListSortedSet::new),
+    PERSISTENT_AVL(true, AVLTree::persistent),
+    SYNCHRONIZED_AVL(false, () -> new SynchronizedSet<String>(new AVLTree<>())),
+    CONCURRENT_AVL(true, ConcurrentAVLTree::new);
+
+    private final boolean sorted;
+    private final Supplier<ISet> factory;
+
+    SetType(boolean sorted, Supplier<ISet> factory) {
+        this.sorted = sorted;
+        this.factory = factory;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public ISet create() {
+        return factory.get();
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.polis.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.mail.polis.ISortedSet;
+
+/**
+ * first / last / inorderTraverse throughput for every {@link ISortedSet} implementation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class SortedSetBenchmark {
+
+    @Param({"AVL", "RB", "COMPACT_RB", "BST", "SCAPEGOAT_BST", "BTREE", "SPLAY", "SKIP_LIST", "CONCURRENT_AVL",
+            "JDK_TREE"})
+    public SetType type;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN", "STRING"})
+    public KeyDistribution distribution;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private ISortedSet set;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (!type.isSorted()) {
+            throw new IllegalArgumentException(type + " is not a sorted set");
+        }
+        set = (ISortedSet) type.create();
+        for (Comparable key : distribution.keys(size, new Random(42))) {
+            set.add(key);
+        }
+    }
+
+    @Benchmark
+    public Object first() {
+        return set.first();
+    }
+
+    @Benchmark
+    public Object last() {
+        return set.last();
+    }
+
+    @Benchmark
+    public List inorderTraverse() {
+        return set.inorderTraverse();
+    }
+}
@@ -0,0 +1,58 @@
+package ru.mail.polis.bench;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import ru.mail.polis.ISet;
+
+/**
+ * Any {@link ISet} behind one global monitor: the baseline the concurrent sets are compared against.
+ */
+public class SynchronizedSet<E extends Comparable<E>> implements ISet<E> {
+
+    private final ISet<E> set;
+
+    public SynchronizedSet(ISet<E> set) {
+        this.set = set;
+    }
+
+    @Override
+    public synchronized int size() {
+        return set.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean contains(E value) {
+        return set.contains(value);
+    }
+
+    @Override
+    public synchronized boolean add(E value) {
+        return set.add(value);
+    }
+
+    @Override
+    public synchronized boolean remove(E value) {
+        return set.remove(value);
+    }
+
+    @Override
+    public synchronized int addAll(Collection<? extends E> values) {
+        return set.addAll(values);
+    }
+
+    @Override
+    public synchronized int removeAll(Collection<? extends E> values) {
+        return set.removeAll(values);
+    }
+
+    @Override
+    public synchronized BitSet containsAll(Collection<? extends E> values) {
+        return set.containsAll(values);
+    }
+}
@@ -1,22 +1,600 @@
 package ru.mail.polis;
 
+import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
-public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
-    private Node root;
+public class AVLTree<E extends Comparable<E>> implements IOrderStatisticSet<E>, Instrumented {
+    private Node<E> root;
     private int size;
     private final Comparator<E> comparator;
+    private final TreeWalker<Node<E>, E> walker = new TreeWalker<Node<E>, E>(null) {
+        @Override
+        Node<E> left(Node<E> node) {
+            return node.left;
+        }
+
+        @Override
+        Node<E> right(Node<E> node) {
+            return node.right;
+        }
+
+        @Override
+        E key(Node<E> node) {
+            return node.key;
+        }
+
+        @Override
+        Comparator<? super E> comparator() {
+            return comparator;
+        }
+    };
+    private Node<E>[] path = newPath(16);
+    /**
+     * add / remove не меняют существующие узлы, а копируют путь от корня, см. {@link #persistent()}
+     */
+    private final boolean persistent;
+    /**
+     * Снимок, полученный из {@link #snapshot()}: любые изменения запрещены
+     */
+    private final boolean readOnly;
+    /**
+     * Счётчики метрик, null - сбор выключен
+     */
+    private MetricsRecorder metrics;
 
     public AVLTree() {
-        this.comparator = null;
+        this(null, false, false);
     }
 
     public AVLTree(Comparator<E> comparator) {
+        this(comparator, false, false);
+    }
+
+    private AVLTree(Comparator<E> comparator, boolean persistent, boolean readOnly) {
         this.comparator = comparator;
+        this.persistent = persistent;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Персистентное дерево: add и remove копируют O(log n) узлов на пути от корня, а однажды созданный узел
+     * больше не меняется. Поэтому {@link #snapshot()} стоит O(1), а снимок можно читать из других потоков
+     * без блокировок, пока это дерево продолжают менять.
+     */
+    public static <E extends Comparable<E>> AVLTree<E> persistent() {
+        return persistent(null);
+    }
+
+    /**
+     * @see #persistent()
+     */
+    public static <E extends Comparable<E>> AVLTree<E> persistent(Comparator<E> comparator) {
+        return new AVLTree<>(comparator, true, false);
+    }
+
+    /**
+     * Неизменяемый снимок текущего состояния. У персистентного дерева снимок делит с ним все узлы и стоит O(1),
+     * у обычного - это копия за O(n). Снимок нужно передать читателям через потокобезопасную публикацию
+     * (volatile, очередь и т.п.), дальше его можно обходить без блокировок.
+     *
+     * @return a read-only view of the elements currently in this tree
+     */
+    public ISortedSet<E> snapshot() {
+        if (readOnly) {
+            return this;
+        }
+        AVLTree<E> snapshot = new AVLTree<>(comparator, persistent, true);
+        snapshot.root = persistent ? root : copy(root);
+        snapshot.size = size;
+        return snapshot;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("snapshot is read-only");
+        }
+    }
+
+    /**
+     * Строит идеально сбалансированное дерево из строго возрастающих элементов за O(n).
+     *
+     * @throws IllegalArgumentException if the elements are not strictly ascending
+     * @throws NullPointerException if an element is null
+     */
+    public static <E extends Comparable<E>> AVLTree<E> fromSorted(Collection<? extends E> sorted) {
+        return fromSorted(sorted, null);
+    }
+
+    /**
+     * Строит идеально сбалансированное дерево из строго возрастающих (по comparator) элементов за O(n).
+     *
+     * @throws IllegalArgumentException if the elements are not strictly ascending
+     * @throws NullPointerException if an element is null
+     */
+    public static <E extends Comparable<E>> AVLTree<E> fromSorted(Collection<? extends E> sorted,
+                                                                  Comparator<E> comparator) {
+        AVLTree<E> tree = new AVLTree<>(comparator);
+        if (!tree.isStrictlySorted(sorted)) {
+            throw new IllegalArgumentException("elements are not strictly ascending");
+        }
+        tree.build(sorted);
+        return tree;
+    }
+
+    /**
+     * Если values строго возрастают, они вставляются за один проход: при m не меньше n дерево пересобирается
+     * слиянием за O(n + m), иначе из values строится дерево и сливается с этим через split / join
+     * (см. {@link #union(AVLTree)}) за O(m log(n / m + 1)) - узлы этого дерева переиспользуются, а не делятся.
+     * Неупорядоченные values добавляются по одному.
+     *
+     * @return the number of elements that were not already in this set
+     * @throws NullPointerException if an element is null
+     */
+    @Override
+    public int addAll(Collection<? extends E> values) {
+        checkWritable();
+        if (!values.isEmpty() && isStrictlySorted(values)) {
+            int before = size;
+            if (values.size() >= size) {
+                build(isEmpty() ? values : merge(values));
+            } else {
+                withRoot(union(build(values.iterator(), values.size()), root, true));
+            }
+            return size - before;
+        }
+        int added = 0;
+        for (E value : values) {
+            if (add(value)) {
+                added++;
+            }
+        }
+        return added;
     }
 
-    private int height(Node node) {
-        return node == null ? -1 : node.height;
+    /**
+     * Если values строго возрастают, они удаляются за один проход: при m не меньше n дерево пересобирается
+     * из разности за O(n + m), иначе разность с деревом из values считается через split / join
+     * за O(m log(n / m + 1)). Неупорядоченные values удаляются по одному.
+     *
+     * @return the number of elements that were removed
+     * @throws NullPointerException if an element is null
+     */
+    @Override
+    public int removeAll(Collection<? extends E> values) {
+        checkWritable();
+        if (!values.isEmpty() && !isEmpty() && isStrictlySorted(values)) {
+            int before = size;
+            if (values.size() >= size) {
+                build(withoutAll(values));
+            } else {
+                withRoot(difference(root, build(values.iterator(), values.size()), true));
+            }
+            return before - size;
+        }
+        int removed = 0;
+        for (E value : values) {
+            if (remove(value)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Строго возрастающие values ищутся пальцем: путь от корня до места предыдущего поиска сохраняется,
+     * и следующий поиск поднимается лишь до первого предка, чей диапазон ключей ещё содержит значение.
+     * Для близких ключей это O(log d) вместо O(log n), где d - расстояние между ними в дереве.
+     *
+     * @return a bit set where bit i is set if the i-th element of values is in this set
+     * @throws NullPointerException if an element is null
+     */
+    @Override
+    public BitSet containsAll(Collection<? extends E> values) {
+        if (!isStrictlySorted(values)) {
+            return IOrderStatisticSet.super.containsAll(values);
+        }
+        BitSet result = new BitSet(values.size());
+        //путь и исключающие верхние границы поддеревьев на нём (null - без границы); нижние не нужны - ключи растут
+        Node<E>[] path = newPath(2 * (33 - Integer.numberOfLeadingZeros(size)));
+        Object[] upper = new Object[path.length];
+        int depth = 0;
+        int i = 0;
+        for (E value : values) {
+            while (depth > 0 && upper[depth - 1] != null && compare(value, bound(upper[depth - 1])) >= 0) {
+                depth--;
+            }
+            Node<E> curr = root;
+            E hi = null;
+            if (depth > 0) {
+                depth--;
+                curr = path[depth];
+                hi = bound(upper[depth]);
+            }
+            while (curr != null) {
+                path[depth] = curr;
+                upper[depth] = hi;
+                depth++;
+                int cmp = compare(value, curr.key);
+                if (cmp == 0) {
+                    result.set(i);
+                    break;
+                }
+                if (cmp < 0) {
+                    hi = curr.key;
+                    curr = curr.left;
+                } else {
+                    curr = curr.right;
+                }
+            }
+            i++;
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E bound(Object bound) {
+        return (E) bound;
+    }
+
+    /**
+     * @return elements of this tree that are not in sorted, in ascending order
+     */
+    private List<E> withoutAll(Collection<? extends E> sorted) {
+        List<E> result = new ArrayList<>(size);
+        Iterator<? extends E> it = sorted.iterator();
+        E other = it.next();
+        for (E value : this) {
+            while (other != null && compare(other, value) < 0) {
+                other = it.hasNext() ? it.next() : null;
+            }
+            if (other == null || compare(other, value) != 0) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Объединение, пересечение и разность строятся на split / join
+     * (Blelloch, Ferizovic, Sun, "Just Join for Parallel Ordered Sets") за O(m log(n / m + 1)) времени и памяти.
+     * Поддеревья, целиком попадающие в результат, не копируются, а становятся общими с аргументами
+     * и помечаются shared; split копирует только путь поиска. Дальше и результат, и аргументы меняют общие узлы
+     * копированием при записи, поэтому ни одна из сторон не видит изменений другой.
+     * Пока обе половины не меньше {@link #PARALLEL_THRESHOLD}, левая рекурсия уходит в ForkJoinPool.commonPool().
+     *
+     * @return a new tree with the elements of this tree and other
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public AVLTree<E> union(AVLTree<E> other) {
+        checkComparator(other);
+        AVLTree<E> result = new AVLTree<>(comparator);
+        return result.withRoot(result.union(root, other.root, false));
+    }
+
+    /**
+     * @return a new tree with the elements that are in both this tree and other
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     * @see #union(AVLTree)
+     */
+    public AVLTree<E> intersect(AVLTree<E> other) {
+        checkComparator(other);
+        AVLTree<E> result = new AVLTree<>(comparator);
+        return result.withRoot(result.intersect(root, other.root));
+    }
+
+    /**
+     * @return a new tree with the elements of this tree that are not in other
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     * @see #union(AVLTree)
+     */
+    public AVLTree<E> difference(AVLTree<E> other) {
+        checkComparator(other);
+        AVLTree<E> result = new AVLTree<>(comparator);
+        return result.withRoot(result.difference(root, other.root, false));
+    }
+
+    private void checkComparator(AVLTree<E> other) {
+        if (!Objects.equals(comparator, other.comparator)) {
+            throw new IllegalArgumentException("trees are ordered by different comparators");
+        }
+    }
+
+    /**
+     * Операции выполняются на дереве, которому достанется корень: own() копирует узлы по его режиму
+     * (результат алгебры не персистентный и копирует только общие узлы)
+     */
+    private AVLTree<E> withRoot(Node<E> root) {
+        this.root = root;
+        this.size = count(root);
+        return this;
+    }
+
+    private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    /**
+     * Счётчики метрик не атомарные, поэтому с включёнными метриками всё выполняется в одном потоке
+     */
+    private boolean isLarge(Node<E> t1, Node<E> t2) {
+        return metrics == null && count(t1) >= PARALLEL_THRESHOLD && count(t2) >= PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * @param owned whether the arguments belong to this tree and are discarded after the call,
+     * so their subtrees can be taken into the result without marking them shared
+     */
+    private Node<E> union(Node<E> t1, Node<E> t2, boolean owned) {
+        if (t1 == null) {
+            return take(t2, owned);
+        }
+        if (t2 == null) {
+            return take(t1, owned);
+        }
+        Split s = split(t2, t1.key, owned);
+        ForkJoinTask<Node<E>> left = isLarge(t1, t2)
+                ? ForkJoinTask.adapt(() -> union(t1.left, s.left, owned)).fork() : null;
+        Node<E> r = union(t1.right, s.right, owned);
+        Node<E> l = left != null ? left.join() : union(t1.left, s.left, owned);
+        return join(l, t1.key, r);
+    }
+
+    private Node<E> intersect(Node<E> t1, Node<E> t2) {
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        Split s = split(t2, t1.key, false);
+        ForkJoinTask<Node<E>> left = isLarge(t1, t2) ? ForkJoinTask.adapt(() -> intersect(t1.left, s.left)).fork() : null;
+        Node<E> r = intersect(t1.right, s.right);
+        Node<E> l = left != null ? left.join() : intersect(t1.left, s.left);
+        return s.found ? join(l, t1.key, r) : join2(l, r);
+    }
+
+    /**
+     * @param owned see {@link #union(Node, Node, boolean)}
+     */
+    private Node<E> difference(Node<E> t1, Node<E> t2, boolean owned) {
+        if (t1 == null) {
+            return null;
+        }
+        if (t2 == null) {
+            return take(t1, owned);
+        }
+        Split s = split(t1, t2.key, owned);
+        ForkJoinTask<Node<E>> left = isLarge(t1, t2)
+                ? ForkJoinTask.adapt(() -> difference(s.left, t2.left, owned)).fork() : null;
+        Node<E> r = difference(s.right, t2.right, owned);
+        Node<E> l = left != null ? left.join() : difference(s.left, t2.left, owned);
+        return join2(l, r);
+    }
+
+    private class Split {
+        private Node<E> left;
+        private Node<E> right;
+        private boolean found;
+        private E key;
+    }
+
+    /**
+     * Делит дерево по key, не изменяя его: узлы на пути поиска заменяются новыми, остальные поддеревья общие с t.
+     *
+     * @param owned t belongs to this tree and is discarded after the split
+     */
+    private Split split(Node<E> t, E key, boolean owned) {
+        if (t == null) {
+            return new Split();
+        }
+        //под общим узлом поддеревья видны и из других деревьев
+        boolean ownedChildren = owned && !t.shared;
+        int cmp = compare(key, t.key);
+        if (cmp == 0) {
+            Split s = new Split();
+            s.left = take(t.left, ownedChildren);
+            s.right = take(t.right, ownedChildren);
+            s.found = true;
+            return s;
+        }
+        if (cmp < 0) {
+            Split s = split(t.left, key, ownedChildren);
+            s.right = join(s.right, t.key, take(t.right, ownedChildren));
+            return s;
+        }
+        Split s = split(t.right, key, ownedChildren);
+        s.left = join(take(t.left, ownedChildren), t.key, s.left);
+        return s;
+    }
+
+    /**
+     * Соединяет деревья, все ключи l меньше key, а все ключи r больше, за O(|h(l) - h(r)|).
+     * Общие узлы на правом краю l (левом краю r) перед изменением копируются.
+     */
+    private Node<E> join(Node<E> l, E key, Node<E> r) {
+        if (height(l) > height(r) + 1) {
+            return joinRight(l, key, r);
+        }
+        if (height(r) > height(l) + 1) {
+            return joinLeft(l, key, r);
+        }
+        return link(l, new Node<>(key), r);
+    }
+
+    private Node<E> joinRight(Node<E> l, E key, Node<E> r) {
+        Node<E> t = own(l);
+        Node<E> c = t.right;
+        if (height(c) <= height(r) + 1) {
+            Node<E> middle = link(c, new Node<>(key), r);
+            if (height(middle) <= height(t.left) + 1) {
+                return link(t.left, t, middle);
+            }
+            middle.left = own(middle.left);
+            t.right = rotateRight(middle);
+            t.fixHeight();
+            return rotateLeft(t);
+        }
+        Node<E> middle = joinRight(c, key, r);
+        link(t.left, t, middle);
+        return height(middle) <= height(t.left) + 1 ? t : rotateLeft(t);
+    }
+
+    private Node<E> joinLeft(Node<E> l, E key, Node<E> r) {
+        Node<E> t = own(r);
+        Node<E> c = t.left;
+        if (height(c) <= height(l) + 1) {
+            Node<E> middle = link(l, new Node<>(key), c);
+            if (height(middle) <= height(t.right) + 1) {
+                return link(middle, t, t.right);
+            }
+            middle.right = own(middle.right);
+            t.left = rotateLeft(middle);
+            t.fixHeight();
+            return rotateRight(t);
+        }
+        Node<E> middle = joinLeft(l, key, c);
+        link(middle, t, t.right);
+        return height(middle) <= height(t.right) + 1 ? t : rotateRight(t);
+    }
+
+    /**
+     * Соединение без разделителя: максимум l становится разделителем. l и r принадлежат результату.
+     */
+    private Node<E> join2(Node<E> l, Node<E> r) {
+        if (l == null) {
+            return r;
+        }
+        Split last = splitLast(l);
+        return join(last.left, last.key, r);
+    }
+
+    private Split splitLast(Node<E> t) {
+        //left уходит в результат, поэтому общий узел копируется и его дети помечаются общими
+        t = own(t);
+        if (t.right == null) {
+            Split s = new Split();
+            s.left = t.left;
+            s.key = t.key;
+            return s;
+        }
+        Split s = splitLast(t.right);
+        s.left = join(t.left, t.key, s.left);
+        return s;
+    }
+
+    private Node<E> link(Node<E> l, Node<E> node, Node<E> r) {
+        node.left = l;
+        node.right = r;
+        node.fixHeight();
+        return node;
+    }
+
+    /**
+     * @return node itself if this tree may change it in place, otherwise its copy
+     */
+    private Node<E> own(Node<E> node) {
+        if (node == null || !(persistent || node.shared)) {
+            return node;
+        }
+        Node<E> copy = new Node<>(node.key);
+        copy.height = node.height;
+        copy.count = node.count;
+        if (node.shared) {
+            //теперь на детей ссылаются и копия, и оригинал
+            copy.left = share(node.left);
+            copy.right = share(node.right);
+        } else {
+            copy.left = node.left;
+            copy.right = node.right;
+        }
+        return copy;
+    }
+
+    /**
+     * Поддерево целиком переходит в результат: своё - как есть, иначе помечается общим
+     */
+    private static <E> Node<E> take(Node<E> node, boolean owned) {
+        return owned ? node : share(node);
+    }
+
+    /**
+     * Помечает поддерево, на которое начинает ссылаться ещё одно дерево
+     */
+    private static <E> Node<E> share(Node<E> node) {
+        if (node != null && !node.shared) {
+            node.shared = true;
+        }
+        return node;
+    }
+
+    private Node<E> copy(Node<E> node) {
+        if (node == null) {
+            return null;
+        }
+        Node<E> copy = new Node<>(node.key);
+        copy.left = copy(node.left);
+        copy.right = copy(node.right);
+        copy.height = node.height;
+        copy.count = node.count;
+        return copy;
+    }
+
+    private boolean isStrictlySorted(Iterable<? extends E> values) {
+        E prev = null;
+        for (E value : values) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            if (prev != null && compare(prev, value) >= 0) {
+                return false;
+            }
+            prev = value;
+        }
+        return true;
+    }
+
+    private List<E> merge(Collection<? extends E> sorted) {
+        List<E> merged = new ArrayList<>(size + sorted.size());
+        Iterator<E> it1 = iterator();
+        Iterator<? extends E> it2 = sorted.iterator();
+        E v1 = it1.next();
+        E v2 = it2.next();
+        while (v1 != null || v2 != null) {
+            int cmp = v1 == null ? 1 : v2 == null ? -1 : compare(v1, v2);
+            if (cmp <= 0) {
+                merged.add(v1);
+                v1 = it1.hasNext() ? it1.next() : null;
+                if (cmp == 0) {
+                    v2 = it2.hasNext() ? it2.next() : null;
+                }
+            } else {
+                merged.add(v2);
+                v2 = it2.hasNext() ? it2.next() : null;
+            }
+        }
+        return merged;
+    }
+
+    private void build(Collection<? extends E> sorted) {
+        root = build(sorted.iterator(), sorted.size());
+        size = sorted.size();
+    }
+
+    private Node<E> build(Iterator<? extends E> it, int n) {
+        if (n == 0) {
+            return null;
+        }
+        int leftSize = (n - 1) / 2;
+        Node<E> left = build(it, leftSize);
+        Node<E> node = new Node<>(it.next());
+        node.left = left;
+        node.right = build(it, n - leftSize - 1);
+        node.fixHeight();
+        return node;
+    }
+
+    private int height(Node<E> node) {
+        return node == null ? 0 : node.height;
     }
 
     @Override
@@ -24,7 +602,7 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         if (isEmpty()) {
             throw new NoSuchElementException("No first element, Set is empty");
         }
-        Node curr = root;
+        Node<E> curr = root;
         while (curr.left != null) {
             curr = curr.left;
         }
@@ -36,27 +614,104 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         if (isEmpty()) {
             throw new NoSuchElementException("No last element, Set is empty");
         }
-        Node curr = root;
+        Node<E> curr = root;
         while (curr.right != null) {
             curr = curr.right;
         }
         return curr.key;
     }
 
+
+    @Override
+    public E floor(E value) {
+        return walker.nearest(root, value, true, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return walker.nearest(root, value, false, true);
+    }
+
+    @Override
+    public E higher(E value) {
+        return walker.nearest(root, value, false, false);
+    }
+
+    @Override
+    public E lower(E value) {
+        return walker.nearest(root, value, true, false);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E select(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+        }
+        Node<E> curr = root;
+        while (true) {
+            int left = count(curr.left);
+            if (k == left) {
+                return curr.key;
+            }
+            if (k < left) {
+                curr = curr.left;
+            } else {
+                k -= left + 1;
+                curr = curr.right;
+            }
+        }
+    }
+
+    @Override
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int rank = 0;
+        Node<E> curr = root;
+        while (curr != null) {
+            if (compare(value, curr.key) <= 0) {
+                curr = curr.left;
+            } else {
+                rank += count(curr.left) + 1;
+                curr = curr.right;
+            }
+        }
+        return rank;
+    }
+
+    private int count(Node<E> node) {
+        return node == null ? 0 : node.count;
+    }
+
     @Override
     public List<E> inorderTraverse() {
-        List<E> result = new ArrayList<>();
-        inorderTraverse(root, result);
+        List<E> result = new ArrayList<>(size);
+        forEach(result::add);
         return result;
     }
 
-    private void inorderTraverse(Node node, List<E> list) {
-        if (node == null) {
-            return;
+    @Override
+    public Iterator<E> iterator() {
+        return walker.cursor(root, size);
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException();
         }
-        inorderTraverse(node.left, list);
-        list.add(node.key);
-        inorderTraverse(node.right, list);
+        return walker.cursor(root, fromElement, size);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return walker.cursor(root, size);
     }
 
     @Override
@@ -74,59 +729,115 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         if (value == null) {
             throw new NullPointerException();
         }
-        return findP(value, root);
-    }
-
-    private boolean findP(E key, Node node) {
-        if (node == null) {
-            return false;
-        }
-        if (compare(key, node.key) == 0) {
-            return true;
-        }
-        if (compare(key, node.key) == -1) {
-            return findP(key, node.left);
-        } else {
-            return findP(key, node.right);
+        Node<E> curr = root;
+        while (curr != null) {
+            int cmp = compare(value, curr.key);
+            if (cmp == 0) {
+                return true;
+            }
+            curr = cmp < 0 ? curr.left : curr.right;
         }
+        return false;
     }
 
+    /**
+     * Вставка за один проход: спуск с одним сравнением на уровень запоминает путь в {@link #path},
+     * затем балансировка идёт снизу вверх по этому пути и останавливается, как только высота поддерева не изменилась.
+     */
     @Override
     public boolean add(E value) {
         if (value == null) {
             throw new NullPointerException();
         }
-        if (this.contains(value)) {
-            return false;
-        }
+        checkWritable();
         if (root == null) {
-            root = new Node(value);
+            root = new Node<>(value);
+            size++;
+            return true;
+        }
+        if (path.length < root.height) {
+            path = newPath(root.height << 1);
+        }
+        int depth = 0;
+        Node<E> curr = root;
+        boolean shared = false;
+        int cmp;
+        while (true) {
+            cmp = compare(value, curr.key);
+            if (cmp == 0) {
+                Arrays.fill(path, 0, depth, null);
+                return false;
+            }
+            shared |= curr.shared;
+            path[depth++] = curr;
+            Node<E> next = cmp < 0 ? curr.left : curr.right;
+            if (next == null) {
+                break;
+            }
+            curr = next;
+        }
+        if (persistent || shared) {
+            copyPath(depth);
+            curr = path[depth - 1];
+        }
+        if (cmp < 0) {
+            curr.left = new Node<>(value);
         } else {
-            addP(value, root);
+            curr.right = new Node<>(value);
         }
+        for (int i = depth - 1; i >= 0; i--) {
+            Node<E> node = path[i];
+            int oldHeight = node.height;
+            Node<E> balanced = balance(node);
+            if (i == 0) {
+                root = balanced;
+            } else if (path[i - 1].left == node) {
+                path[i - 1].left = balanced;
+            } else {
+                path[i - 1].right = balanced;
+            }
+            if (balanced.height == oldHeight) {
+                //выше высоты не меняются, остаётся только учесть новый узел в размерах поддеревьев
+                for (int j = i - 1; j >= 0; j--) {
+                    path[j].count++;
+                }
+                break;
+            }
+        }
+        Arrays.fill(path, 0, depth, null);
         size++;
         return true;
     }
 
-    private Node addP(E key, Node r) {
-        if (r == null) {
-            return new Node(key);
-        } else {
-            if (compare(key, r.key) == -1) { //key<r.key
-                r.left = addP(key, r.left);
+    /**
+     * Заменяет копиями узлы path[0, depth), которые нельзя менять на месте: все в персистентном режиме,
+     * иначе - общие узлы и всё ниже них. Перевесы при вставке лежат на этом же пути,
+     * поэтому дальше балансировка меняет только свои узлы.
+     */
+    private void copyPath(int depth) {
+        for (int i = 0; i < depth; i++) {
+            Node<E> copy = own(path[i]);
+            if (i == 0) {
+                root = copy;
+            } else if (path[i - 1].left == path[i]) {
+                path[i - 1].left = copy;
             } else {
-                r.right = addP(key, r.right);
+                path[i - 1].right = copy;
             }
+            path[i] = copy;
         }
-        Node f = balance(r);
-        if (r.equals(root)) {
-            root = f;
-        }
-        return f;
     }
 
-    private Node rotateRight(Node node) {
-        Node q = node.left;
+    @SuppressWarnings("unchecked")
+    private Node<E>[] newPath(int length) {
+        return (Node<E>[]) Array.newInstance(Node.class, length);
+    }
+
+    private Node<E> rotateRight(Node<E> node) {
+        if (metrics != null) {
+            metrics.rotations++;
+        }
+        Node<E> q = node.left;
         node.left = q.right;
         q.right = node;
         node.fixHeight();
@@ -134,8 +845,11 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         return q;
     }
 
-    private Node rotateLeft(Node node) {
-        Node p = node.right;
+    private Node<E> rotateLeft(Node<E> node) {
+        if (metrics != null) {
+            metrics.rotations++;
+        }
+        Node<E> p = node.right;
         node.right = p.left;
         p.left = node;
         node.fixHeight();
@@ -143,16 +857,40 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         return p;
     }
 
-    private Node balance(Node node) {
+    @Override
+    public void enableMetrics() {
+        metrics = new MetricsRecorder();
+    }
+
+    @Override
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    @Override
+    public SetMetrics metrics() {
+        MetricsRecorder recorder = metrics;
+        return recorder == null ? null : recorder.snapshot();
+    }
+
+    /**
+     * node уже принадлежит этому дереву; после удаления поворачивается поддерево с другой стороны от пути,
+     * поэтому в персистентном режиме его узлы перед поворотом копируются
+     */
+    private Node<E> balance(Node<E> node) {
         node.fixHeight();
         if (node.bFactor() == 2) {
+            node.right = own(node.right);
             if (node.right.bFactor() < 0) {
+                node.right.left = own(node.right.left);
                 node.right = rotateRight(node.right);
             }
             return rotateLeft(node);
         }
         if (node.bFactor() == -2) {
+            node.left = own(node.left);
             if (node.left.bFactor() > 0) {
+                node.left.right = own(node.left.right);
                 node.left = rotateLeft(node.left);
             }
             return rotateRight(node);
@@ -167,6 +905,11 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         if (value == null) {
             throw new NullPointerException();
         }
+        checkWritable();
+        if (persistent && !contains(value)) {
+            //иначе промах скопировал бы весь путь поиска
+            return false;
+        }
         booleanRemove = false;
         root = remove(root, value);
         if (booleanRemove) {
@@ -175,10 +918,11 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         return booleanRemove;
     }
 
-    private Node remove(Node node, E value) {
+    private Node<E> remove(Node<E> node, E value) {
         if (node == null) {
             return null;
         }
+        node = own(node);
         int cmp = compare(value, node.key);
         if (cmp < 0) {
             node.left = remove(node.left, value);
@@ -191,8 +935,8 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
             } else if (node.right == null) {
                 return node.left;
             } else {
-                Node node2 = node;
-                node = min(node2.right);
+                Node<E> node2 = node;
+                node = ownMin(node2.right);
                 node.right = removeMin(node2.right);
                 node.left = node2.left;
             }
@@ -202,14 +946,26 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
 
-    private Node min(Node node) {
-        return (node.left == null) ? node : min(node.left);
+    /**
+     * Минимум поддерева, который можно менять на месте: копия, если он сам или кто-то выше него общий
+     */
+    private Node<E> ownMin(Node<E> node) {
+        boolean shared = node.shared;
+        while (node.left != null) {
+            node = node.left;
+            shared |= node.shared;
+        }
+        if (shared) {
+            share(node);
+        }
+        return own(node);
     }
 
-    private Node removeMin(Node node) {
+    private Node<E> removeMin(Node<E> node) {
         if (node.left == null) {
             return node.right;
         }
+        node = own(node);
         node.left = removeMin(node.left);
         return balance(node);
     }
@@ -219,17 +975,27 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
-    private class Node {
+    private static final class Node<E> {
         private E key;
-        private Node left;
-        private Node right;
+        private Node<E> left;
+        private Node<E> right;
         private int height;
+        /**
+         * Число узлов в поддереве, пересчитывается вместе с высотой в fixHeight
+         */
+        private int count;
+        /**
+         * Поддерево может входить и в другие деревья (см. {@link AVLTree#share}): узел и всё под ним
+         * не меняются на месте, а копируются
+         */
+        private boolean shared;
 
         Node(E key) {
             this.key = key;
             left = null;
             right = null;
             height = 1;
+            count = 1;
         }
 
         private int height() {
@@ -266,6 +1032,7 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
                 l = left.height();
             }
             height = (l > r ? l : r) + 1;
+            count = (left == null ? 0 : left.count) + (right == null ? 0 : right.count) + 1;
         }
     }
 }
@@ -0,0 +1,177 @@
+package ru.mail.polis;
+
+/**
+ * Множество строк, рассчитанное на ключи из строчных латинских букв (как в задании к {@link OpenHashTable}).
+ * Строка из букв a-z длиной до {@link #MAX_PACKED_LENGTH} упаковывается в long как число в биективной
+ * 26-ричной системе (a = 1, ..., z = 26; разные строки дают разные числа) и хранится в {@link LongHashSet}:
+ * ни String.equals, ни переходов по ссылкам на объекты ключей.
+ * Остальные строки лежат в отдельной таблице с линейным пробированием, где рядом с ключом хранится его hashCode:
+ * при поиске equals вызывается только при совпадении хешей, а при расширении хеши не пересчитываются.
+ * Равенство - String.equals, поэтому конструктора с компаратором нет.
+ */
+public class AlphaStringHashSet implements ISet<String> {
+
+    /**
+     * 26 * (26^13 - 1) / 25 < 2^63, поэтому 13 букв помещаются в неотрицательный long
+     */
+    private static final int MAX_PACKED_LENGTH = 13;
+
+    private final int INITIAL_CAPACITY = 8;
+
+    private final LongHashSet packed = new LongHashSet();
+    /**
+     * Строки, которые не упаковываются; пустая ячейка - null
+     */
+    private String[] keys;
+    private int[] hashes;
+    private int mask;
+    private int otherSize;
+
+    public AlphaStringHashSet() {
+        this.keys = new String[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.mask = INITIAL_CAPACITY - 1;
+    }
+
+    /**
+     * @return the packed value of the string, or -1 if it is too long or has a character outside a-z
+     */
+    private static long pack(String value) {
+        int length = value.length();
+        if (length > MAX_PACKED_LENGTH) {
+            return -1;
+        }
+        long packed = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = value.charAt(i) - 'a' + 1;
+            if (digit < 1 || digit > 26) {
+                return -1;
+            }
+            packed = packed * 26 + digit;
+        }
+        return packed;
+    }
+
+    @Override
+    public int size() {
+        return packed.size() + otherSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        long p = pack(value);
+        if (p >= 0) {
+            return packed.contains(p);
+        }
+        return otherSize > 0 && indexOf(value, value.hashCode()) >= 0;
+    }
+
+    @Override
+    public boolean add(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        long p = pack(value);
+        if (p >= 0) {
+            return packed.add(p);
+        }
+        int h = value.hashCode();
+        int idx = spread(h) & mask;
+        String curr;
+        while ((curr = keys[idx]) != null) {
+            if (hashes[idx] == h && curr.equals(value)) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        keys[idx] = value;
+        hashes[idx] = h;
+        otherSize++;
+        if (otherSize * 2 >= keys.length) {
+            resize(keys.length << 1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(String value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        long p = pack(value);
+        if (p >= 0) {
+            return packed.remove(p);
+        }
+        int idx = otherSize > 0 ? indexOf(value, value.hashCode()) : -1;
+        if (idx < 0) {
+            return false;
+        }
+        shiftBack(idx);
+        otherSize--;
+        return true;
+    }
+
+    private int indexOf(String value, int h) {
+        int idx = spread(h) & mask;
+        String curr;
+        while ((curr = keys[idx]) != null) {
+            if (hashes[idx] == h && curr.equals(value)) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Закрывает дыру в ячейке {@code gap}, как в {@link LongHashSet}; "домашняя" ячейка считается по сохранённому хешу.
+     */
+    private void shiftBack(int gap) {
+        int idx = gap;
+        while (true) {
+            idx = (idx + 1) & mask;
+            String curr = keys[idx];
+            if (curr == null) {
+                break;
+            }
+            int home = spread(hashes[idx]) & mask;
+            if (((idx - home) & mask) >= ((idx - gap) & mask)) {
+                keys[gap] = curr;
+                hashes[gap] = hashes[idx];
+                gap = idx;
+            }
+        }
+        keys[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+            int idx = spread(oldHashes[i]) & mask;
+            while (keys[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+            keys[idx] = oldKeys[i];
+            hashes[idx] = oldHashes[i];
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
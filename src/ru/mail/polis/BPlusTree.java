@@ -0,0 +1,522 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * B+-дерево: все ключи лежат в листьях, связанных в список, внутренние узлы хранят только разделители.
+ * В узле до fanout ключей (в листе) или детей (во внутреннем узле), поиск внутри узла двоичный.
+ * Ребёнок i внутреннего узла содержит ключи из [keys[i - 1], keys[i]); после удаления разделитель
+ * может остаться равным уже удалённому ключу, на поиск это не влияет.
+ * Узлы, кроме корня, заполнены не меньше чем наполовину: при недоборе узел занимает ключ у соседа или сливается с ним.
+ */
+public class BPlusTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final int DEFAULT_FANOUT = 64;
+    private static final int MIN_FANOUT = 4;
+
+    private abstract static class Node {
+        /**
+         * Число ключей в листе или детей во внутреннем узле
+         */
+        int size;
+        final Object[] keys;
+
+        Node(int keys) {
+            this.keys = new Object[keys];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        Leaf next;
+
+        Leaf(int fanout) {
+            //лишняя ячейка - под переполнение перед расщеплением
+            super(fanout + 1);
+        }
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(int fanout) {
+            super(fanout);
+            this.children = new Node[fanout + 1];
+        }
+    }
+
+    private final int fanout;
+    private final int minSize;
+    private final Comparator<E> comparator;
+    private Node root;
+    private int size;
+
+    public BPlusTree() {
+        this(DEFAULT_FANOUT, null);
+    }
+
+    public BPlusTree(Comparator<E> comparator) {
+        this(DEFAULT_FANOUT, comparator);
+    }
+
+    public BPlusTree(int fanout) {
+        this(fanout, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException if fanout is less than 4
+     */
+    public BPlusTree(int fanout, Comparator<E> comparator) {
+        if (fanout < MIN_FANOUT) {
+            throw new IllegalArgumentException("fanout must be at least " + MIN_FANOUT + ": " + fanout);
+        }
+        this.fanout = fanout;
+        this.minSize = fanout / 2;
+        this.comparator = comparator;
+        this.root = new Leaf(fanout);
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E key(Node node, int i) {
+        return (E) node.keys[i];
+    }
+
+    /**
+     * @return index of the first key in the leaf not less than (or greater than, if strict) the value
+     */
+    private int lowerBound(Leaf leaf, E value, boolean strict) {
+        int lo = 0;
+        int hi = leaf.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(key(leaf, mid), value);
+            if (cmp < 0 || (strict && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return index of the child whose key range contains the value
+     */
+    private int childIndex(Inner inner, E value) {
+        int lo = 0;
+        int hi = inner.size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(value, key(inner, mid)) < 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    private Leaf findLeaf(E value) {
+        Node curr = root;
+        while (curr instanceof Inner) {
+            Inner inner = (Inner) curr;
+            curr = inner.children[childIndex(inner, value)];
+        }
+        return (Leaf) curr;
+    }
+
+    private Leaf firstLeaf() {
+        Node curr = root;
+        while (curr instanceof Inner) {
+            curr = ((Inner) curr).children[0];
+        }
+        return (Leaf) curr;
+    }
+
+    private E lastKey(Node node) {
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[node.size - 1];
+        }
+        return key(node, node.size - 1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Leaf leaf = findLeaf(value);
+        int i = lowerBound(leaf, value, false);
+        return i < leaf.size && compare(key(leaf, i), value) == 0;
+    }
+
+    private boolean booleanAdd;
+    /**
+     * Разделитель, поднимаемый в родителя при расщеплении
+     */
+    private E splitKey;
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        booleanAdd = false;
+        Node sibling = add(root, value);
+        if (sibling != null) {
+            Inner newRoot = new Inner(fanout);
+            newRoot.children[0] = root;
+            newRoot.children[1] = sibling;
+            newRoot.keys[0] = splitKey;
+            newRoot.size = 2;
+            root = newRoot;
+        }
+        splitKey = null;
+        if (booleanAdd) {
+            size++;
+        }
+        return booleanAdd;
+    }
+
+    /**
+     * @return the new right sibling if the node was split, otherwise null
+     */
+    private Node add(Node node, E value) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = lowerBound(leaf, value, false);
+            if (i < leaf.size && compare(key(leaf, i), value) == 0) {
+                return null;
+            }
+            booleanAdd = true;
+            System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.size - i);
+            leaf.keys[i] = value;
+            leaf.size++;
+            return leaf.size > fanout ? splitLeaf(leaf) : null;
+        }
+        Inner inner = (Inner) node;
+        int i = childIndex(inner, value);
+        Node sibling = add(inner.children[i], value);
+        if (sibling == null) {
+            return null;
+        }
+        System.arraycopy(inner.keys, i, inner.keys, i + 1, inner.size - 1 - i);
+        System.arraycopy(inner.children, i + 1, inner.children, i + 2, inner.size - 1 - i);
+        inner.keys[i] = splitKey;
+        inner.children[i + 1] = sibling;
+        inner.size++;
+        return inner.size > fanout ? splitInner(inner) : null;
+    }
+
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf(fanout);
+        int mid = leaf.size / 2;
+        right.size = leaf.size - mid;
+        System.arraycopy(leaf.keys, mid, right.keys, 0, right.size);
+        Arrays.fill(leaf.keys, mid, leaf.size, null);
+        leaf.size = mid;
+        right.next = leaf.next;
+        leaf.next = right;
+        splitKey = key(right, 0);
+        return right;
+    }
+
+    private Inner splitInner(Inner inner) {
+        Inner right = new Inner(fanout);
+        int mid = inner.size / 2;
+        right.size = inner.size - mid;
+        System.arraycopy(inner.children, mid, right.children, 0, right.size);
+        System.arraycopy(inner.keys, mid, right.keys, 0, right.size - 1);
+        splitKey = key(inner, mid - 1);
+        Arrays.fill(inner.children, mid, inner.size, null);
+        Arrays.fill(inner.keys, mid - 1, inner.size - 1, null);
+        inner.size = mid;
+        return right;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!remove(root, value)) {
+            return false;
+        }
+        if (root instanceof Inner && root.size == 1) {
+            root = ((Inner) root).children[0];
+        }
+        size--;
+        return true;
+    }
+
+    private boolean remove(Node node, E value) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = lowerBound(leaf, value, false);
+            if (i == leaf.size || compare(key(leaf, i), value) != 0) {
+                return false;
+            }
+            System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.size - i - 1);
+            leaf.keys[--leaf.size] = null;
+            return true;
+        }
+        Inner inner = (Inner) node;
+        int i = childIndex(inner, value);
+        if (!remove(inner.children[i], value)) {
+            return false;
+        }
+        if (inner.children[i].size < minSize) {
+            fixUnderflow(inner, i);
+        }
+        return true;
+    }
+
+    /**
+     * Дополняет ребёнка i ключом соседа, а если соседям нечего отдать - сливает его с соседом
+     */
+    private void fixUnderflow(Inner parent, int i) {
+        Node left = i > 0 ? parent.children[i - 1] : null;
+        Node right = i < parent.size - 1 ? parent.children[i + 1] : null;
+        if (left != null && left.size > minSize) {
+            borrowFromLeft(parent, i);
+        } else if (right != null && right.size > minSize) {
+            borrowFromRight(parent, i);
+        } else if (left != null) {
+            merge(parent, i - 1);
+        } else {
+            merge(parent, i);
+        }
+    }
+
+    private void borrowFromLeft(Inner parent, int i) {
+        Node node = parent.children[i];
+        Node left = parent.children[i - 1];
+        if (node instanceof Leaf) {
+            System.arraycopy(node.keys, 0, node.keys, 1, node.size);
+            node.keys[0] = left.keys[left.size - 1];
+            left.keys[left.size - 1] = null;
+            parent.keys[i - 1] = node.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner leftInner = (Inner) left;
+            System.arraycopy(inner.keys, 0, inner.keys, 1, inner.size - 1);
+            System.arraycopy(inner.children, 0, inner.children, 1, inner.size);
+            inner.keys[0] = parent.keys[i - 1];
+            inner.children[0] = leftInner.children[left.size - 1];
+            parent.keys[i - 1] = leftInner.keys[left.size - 2];
+            leftInner.keys[left.size - 2] = null;
+            leftInner.children[left.size - 1] = null;
+        }
+        left.size--;
+        node.size++;
+    }
+
+    private void borrowFromRight(Inner parent, int i) {
+        Node node = parent.children[i];
+        Node right = parent.children[i + 1];
+        if (node instanceof Leaf) {
+            node.keys[node.size] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            right.keys[right.size - 1] = null;
+            parent.keys[i] = right.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner rightInner = (Inner) right;
+            inner.keys[inner.size - 1] = parent.keys[i];
+            inner.children[inner.size] = rightInner.children[0];
+            parent.keys[i] = rightInner.keys[0];
+            System.arraycopy(rightInner.keys, 1, rightInner.keys, 0, right.size - 2);
+            System.arraycopy(rightInner.children, 1, rightInner.children, 0, right.size - 1);
+            rightInner.keys[right.size - 2] = null;
+            rightInner.children[right.size - 1] = null;
+        }
+        right.size--;
+        node.size++;
+    }
+
+    /**
+     * Сливает ребёнка j + 1 в ребёнка j и убирает разделитель между ними из родителя
+     */
+    private void merge(Inner parent, int j) {
+        Node left = parent.children[j];
+        Node right = parent.children[j + 1];
+        if (left instanceof Leaf) {
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            ((Leaf) left).next = ((Leaf) right).next;
+        } else {
+            Inner leftInner = (Inner) left;
+            Inner rightInner = (Inner) right;
+            leftInner.keys[left.size - 1] = parent.keys[j];
+            System.arraycopy(rightInner.keys, 0, leftInner.keys, left.size, right.size - 1);
+            System.arraycopy(rightInner.children, 0, leftInner.children, left.size, right.size);
+        }
+        left.size += right.size;
+        System.arraycopy(parent.keys, j + 1, parent.keys, j, parent.size - j - 2);
+        System.arraycopy(parent.children, j + 2, parent.children, j + 1, parent.size - j - 2);
+        parent.size--;
+        parent.keys[parent.size - 1] = null;
+        parent.children[parent.size] = null;
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return key(firstLeaf(), 0);
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return lastKey(root);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return higherOrCeiling(value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return higherOrCeiling(value, true);
+    }
+
+    @Override
+    public E floor(E value) {
+        return lowerOrFloor(value, false);
+    }
+
+    @Override
+    public E lower(E value) {
+        return lowerOrFloor(value, true);
+    }
+
+    private E higherOrCeiling(E value, boolean strict) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Leaf leaf = findLeaf(value);
+        int i = lowerBound(leaf, value, strict);
+        if (i < leaf.size) {
+            return key(leaf, i);
+        }
+        //все ключи следующего листа не меньше разделителя, а значит больше value
+        return leaf.next == null ? null : key(leaf.next, 0);
+    }
+
+    private E lowerOrFloor(E value, boolean strict) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        //ближайшее поддерево слева от пути поиска: если в листе ответа нет, он - максимум этого поддерева
+        Node leftNeighbour = null;
+        Node curr = root;
+        while (curr instanceof Inner) {
+            Inner inner = (Inner) curr;
+            int i = childIndex(inner, value);
+            if (i > 0) {
+                leftNeighbour = inner.children[i - 1];
+            }
+            curr = inner.children[i];
+        }
+        Leaf leaf = (Leaf) curr;
+        int i = lowerBound(leaf, value, !strict) - 1;
+        if (i >= 0) {
+            return key(leaf, i);
+        }
+        return leftNeighbour == null ? null : lastKey(leftNeighbour);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> result = new ArrayList<>(size);
+        for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.size; i++) {
+                result.add(key(leaf, i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new LeafIterator(firstLeaf(), 0);
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        Leaf leaf = findLeaf(fromElement);
+        return new LeafIterator(leaf, lowerBound(leaf, fromElement, false));
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return SortedIteratorSpliterator.of(iterator(), size, 0, comparator);
+    }
+
+    /**
+     * Обход по списку листьев
+     */
+    private class LeafIterator implements Iterator<E> {
+        private Leaf leaf;
+        private int index;
+
+        LeafIterator(Leaf leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+            skipExhausted();
+        }
+
+        private void skipExhausted() {
+            while (leaf != null && index == leaf.size) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public E next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            E result = key(leaf, index++);
+            skipExhausted();
+            return result;
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package ru.mail.polis;
 
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Spliterator;
 
-public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E> {
+public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>, Instrumented {
 
     class Node {
 
@@ -36,13 +41,100 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
     private Node root;
     private int size;
     private final Comparator<E> comparator;
+    private final TreeWalker<Node, E> walker = new TreeWalker<Node, E>(null) {
+        @Override
+        Node left(Node node) {
+            return node.left;
+        }
+
+        @Override
+        Node right(Node node) {
+            return node.right;
+        }
+
+        @Override
+        E key(Node node) {
+            return node.value;
+        }
+
+        @Override
+        Comparator<? super E> comparator() {
+            return comparator;
+        }
+    };
+    /**
+     * Счётчики метрик, null - сбор выключен
+     */
+    private MetricsRecorder metrics;
+
+    private static final double DEFAULT_ALPHA = 0.7;
+
+    /**
+     * Режим scapegoat-дерева, см. {@link #scapegoat(double, Comparator)}
+     */
+    private final boolean scapegoat;
+    private final double alpha;
+    /**
+     * ln(1 / alpha): глубина узла не должна превышать log_{1/alpha}(size)
+     */
+    private final double logInverseAlpha;
+    /**
+     * Наибольший размер с последней перестройки всего дерева
+     */
+    private int maxSize;
+    /**
+     * Путь от корня до вставленного узла, заполняется только в режиме scapegoat
+     */
+    private Node[] path;
 
     public BinarySearchTree() {
-        this.comparator = null;
+        this(null);
     }
 
     public BinarySearchTree(Comparator<E> comparator) {
         this.comparator = comparator;
+        this.scapegoat = false;
+        this.alpha = 1;
+        this.logInverseAlpha = 0;
+    }
+
+    private BinarySearchTree(double alpha, Comparator<E> comparator) {
+        if (!(alpha > 0.5 && alpha < 1)) {
+            throw new IllegalArgumentException("alpha must be in (0.5, 1): " + alpha);
+        }
+        this.comparator = comparator;
+        this.scapegoat = true;
+        this.alpha = alpha;
+        this.logInverseAlpha = Math.log(1 / alpha);
+        this.path = newPath(16);
+    }
+
+    /**
+     * @see #scapegoat(double, Comparator)
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> scapegoat() {
+        return new BinarySearchTree<>(DEFAULT_ALPHA, null);
+    }
+
+    /**
+     * @see #scapegoat(double, Comparator)
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> scapegoat(Comparator<E> comparator) {
+        return new BinarySearchTree<>(DEFAULT_ALPHA, comparator);
+    }
+
+    /**
+     * Scapegoat-дерево (Galperin, Rivest): узлы те же, без высоты, цвета и размера поддерева.
+     * Если новый узел оказался глубже log_{1/alpha}(size), на пути к нему ищется первый снизу предок,
+     * у которого поддерево ребёнка больше alpha * размер его поддерева, и это поддерево перестраивается
+     * в идеально сбалансированное. Когда после удалений size < alpha * maxSize, перестраивается всё дерево.
+     * Глубина остаётся O(log n), add и remove - O(log n) амортизированно.
+     *
+     * @param alpha чем ближе к 1/2, тем ниже дерево и тем чаще перестройки
+     * @throws IllegalArgumentException if alpha is not in (0.5, 1)
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> scapegoat(double alpha, Comparator<E> comparator) {
+        return new BinarySearchTree<>(alpha, comparator);
     }
 
     @Override
@@ -105,35 +197,137 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         if (value == null) {
             throw new NullPointerException("value is null");
         }
+        Node node;
+        int depth = 0;
         if (root == null) {
-            root = new Node(value);
+            node = root = new Node(value);
         } else {
             Node curr = root;
             while (true) {
                 int cmp = compare(curr.value, value);
                 if (cmp == 0) {
+                    if (scapegoat) {
+                        Arrays.fill(path, 0, depth, null);
+                    }
                     return false;
-                } else if (cmp < 0) {
+                }
+                if (scapegoat) {
+                    if (depth == path.length) {
+                        path = Arrays.copyOf(path, depth << 1);
+                    }
+                    path[depth] = curr;
+                }
+                depth++;
+                if (cmp < 0) {
                     if (curr.right != null) {
                         curr = curr.right;
                     } else {
-                        curr.right = new Node(value);
+                        node = curr.right = new Node(value);
                         break;
                     }
-                } else if (cmp > 0) {
+                } else {
                     if (curr.left != null) {
                         curr = curr.left;
                     } else {
-                        curr.left = new Node(value);
+                        node = curr.left = new Node(value);
                         break;
                     }
                 }
             }
         }
         size++;
+        if (scapegoat) {
+            maxSize = Math.max(maxSize, size);
+            if (depth > Math.log(size) / logInverseAlpha) {
+                rebuildScapegoat(node, depth);
+            }
+            Arrays.fill(path, 0, depth, null);
+        }
         return true;
     }
 
+    /**
+     * Поднимается от вставленного узла по path, считая размеры поддеревьев, до первого узла,
+     * у которого ребёнок на пути тяжелее alpha * размер узла. Такой узел есть, потому что узел слишком глубок.
+     */
+    private void rebuildScapegoat(Node node, int depth) {
+        Node child = node;
+        int childSize = 1;
+        for (int i = depth - 1; i >= 0; i--) {
+            Node parent = path[i];
+            Node sibling = parent.left == child ? parent.right : parent.left;
+            int parentSize = childSize + 1 + size(sibling);
+            if (childSize > alpha * parentSize) {
+                Node rebuilt = rebuild(parent, parentSize);
+                if (i == 0) {
+                    root = rebuilt;
+                } else if (path[i - 1].left == parent) {
+                    path[i - 1].left = rebuilt;
+                } else {
+                    path[i - 1].right = rebuilt;
+                }
+                return;
+            }
+            child = parent;
+            childSize = parentSize;
+        }
+    }
+
+    private int size(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        int count = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node curr = stack.pop();
+            count++;
+            if (curr.left != null) {
+                stack.push(curr.left);
+            }
+            if (curr.right != null) {
+                stack.push(curr.right);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Перестраивает поддерево из n узлов в идеально сбалансированное, переиспользуя сами узлы
+     */
+    private Node rebuild(Node node, int n) {
+        List<Node> nodes = new ArrayList<>(n);
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node curr = node;
+        while (curr != null || !stack.isEmpty()) {
+            while (curr != null) {
+                stack.push(curr);
+                curr = curr.left;
+            }
+            curr = stack.pop();
+            nodes.add(curr);
+            curr = curr.right;
+        }
+        return build(nodes, 0, nodes.size() - 1);
+    }
+
+    private Node build(List<Node> nodes, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node node = nodes.get(mid);
+        node.left = build(nodes, lo, mid - 1);
+        node.right = build(nodes, mid + 1, hi);
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node[] newPath(int length) {
+        return (Node[]) Array.newInstance(Node.class, length);
+    }
+
     @Override
     public boolean remove(E value) {
         if (value == null) {
@@ -182,6 +376,10 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
             }
         }
         size--;
+        if (scapegoat && size < alpha * maxSize) {
+            root = rebuild(root, size);
+            maxSize = size;
+        }
         return true;
     }
 
@@ -196,24 +394,103 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         curr.value = null;
     }
 
+    @Override
+    public void enableMetrics() {
+        metrics = new MetricsRecorder();
+    }
+
+    @Override
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    /**
+     * Глубина считается обходом дерева в момент снимка, на add / remove сбор ничего не стоит
+     */
+    @Override
+    public SetMetrics metrics() {
+        MetricsRecorder recorder = metrics;
+        if (recorder == null) {
+            return null;
+        }
+        int maxDepth = 0;
+        long totalDepth = 0;
+        ArrayDeque<Node> nodes = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        if (root != null) {
+            nodes.push(root);
+            depths.push(0);
+        }
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            int depth = depths.pop();
+            maxDepth = Math.max(maxDepth, depth);
+            totalDepth += depth;
+            if (node.left != null) {
+                nodes.push(node.left);
+                depths.push(depth + 1);
+            }
+            if (node.right != null) {
+                nodes.push(node.right);
+                depths.push(depth + 1);
+            }
+        }
+        return recorder.snapshot(new long[SetMetrics.BUCKETS], maxDepth, size == 0 ? 0 : (double) totalDepth / size);
+    }
+
     private int compare(E v1, E v2) {
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
+
+    @Override
+    public E floor(E value) {
+        return walker.nearest(root, value, true, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return walker.nearest(root, value, false, true);
+    }
+
+    @Override
+    public E higher(E value) {
+        return walker.nearest(root, value, false, false);
+    }
+
+    @Override
+    public E lower(E value) {
+        return walker.nearest(root, value, true, false);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
     @Override
     public List<E> inorderTraverse() {
         List<E> list = new ArrayList<E>(size);
-        inorderTraverse(root, list);
+        forEach(list::add);
         return list;
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr == null) {
-            return;
+    @Override
+    public Iterator<E> iterator() {
+        return walker.cursor(root, size);
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
         }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
+        return walker.cursor(root, fromElement, size);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return walker.cursor(root, size);
     }
 
     @Override
@@ -1,17 +1,26 @@
 package ru.mail.polis;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 
-public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
+/**
+ * Хеш-таблица с цепочками. Размер таблицы - степень двойки, перехеширование при load factor = 1/2.
+ * Перехеширование инкрементальное: старая и новая таблицы живут рядом, и каждая операция add / remove
+ * переносит не больше {@link #MIGRATE_STEP} корзин старой таблицы. Корзина расщепляется по одному биту хеша
+ * на i и i + n, узлы перевешиваются без пересоздания и без повторного вызова hashCode().
+ */
+public class ChainHashTable<E extends Comparable<E>> implements ISet<E>, Instrumented {
 
     class Node {
         E value;
+        int hash;
         Node next;
 
-        Node(E value) {
+        Node(E value, int hash) {
             this.value = value;
+            this.hash = hash;
         }
 
         @Override
@@ -26,12 +35,27 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
         }
     }
 
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
     private final int INITIAL_CAPACITY = 8;
 //    private final float LOAD_FACTOR = 0.5f;
+    private final int MIGRATE_STEP = 2;
 
     private Comparator<E> comparator;
     private Object[] table;
+    /**
+     * Таблица, из которой ещё идёт перенос, или null
+     */
+    private Object[] oldTable;
+    /**
+     * Корзины oldTable с индексом меньше migrated уже перенесены в table
+     */
+    private int migrated;
     private int size;
+    /**
+     * Счётчики метрик, null - сбор выключен
+     */
+    private MetricsRecorder metrics;
 
     public ChainHashTable() {
         this(null);
@@ -54,29 +78,38 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     @Override
     public boolean contains(E value) {
-        Node curr = getNode(hash(value));
-        while (curr != null && !curr.equals(value)) {
+        int h = hash(value);
+        Object[] tab = tableFor(h);
+        Node curr = getNode(tab, h & (tab.length - 1));
+        int probes = 0;
+        while (curr != null && (curr.hash != h || compare(value, curr.value) != 0)) {
             curr = curr.next;
+            probes++;
         }
+        recordProbes(curr == null ? probes : probes + 1);
         //Вышли по второму условию
         return curr != null;
     }
 
     @Override
     public boolean add(E value) {
-        int idx = hash(value);
-        if (table[idx] == null) {
-            table[idx] = new Node(value);
-        } else {
-            Node curr = getNode(idx);
-            while (curr.next != null && compare(value, curr.value) != 0) {
-                curr = curr.next;
-            }
-            if (compare(value, curr.value) == 0) {
+        int h = hash(value);
+        migrate();
+        Object[] tab = tableFor(h);
+        int idx = h & (tab.length - 1);
+        int probes = 0;
+        for (Node curr = getNode(tab, idx); curr != null; curr = curr.next) {
+            probes++;
+            if (curr.hash == h && compare(value, curr.value) == 0) {
+                recordProbes(probes);
                 return false;
             }
-            curr.next = new Node(value);
         }
+        recordProbes(probes);
+        //все значения в цепочке уникальны - вставляем в голову
+        Node node = new Node(value, h);
+        node.next = getNode(tab, idx);
+        tab[idx] = node;
         size++;
         resize();
         return true;
@@ -84,16 +117,22 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     @Override
     public boolean remove(E value) {
+        int h = hash(value);
+        migrate();
+        Object[] tab = tableFor(h);
+        int idx = h & (tab.length - 1);
         Node prev = null;
-        int idx = hash(value);
-        Node curr = getNode(idx);
-        while (curr != null && compare(value, curr.value) != 0) {
+        Node curr = getNode(tab, idx);
+        int probes = 0;
+        while (curr != null && (curr.hash != h || compare(value, curr.value) != 0)) {
             prev = curr;
             curr = curr.next;
+            probes++;
         }
+        recordProbes(curr == null ? probes : probes + 1);
         if (curr != null) {
             if (prev == null) { //head
-                table[idx] = getNode(idx).next;
+                tab[idx] = curr.next;
             } else {
                 prev.next = curr.next;
             }
@@ -105,48 +144,186 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
         return false;
     }
 
+    /**
+     * Таблица расширяется один раз под весь пакет, а не удваивается по ходу вставки.
+     */
+    @Override
+    public int addAll(Collection<? extends E> values) {
+        int capacity = table.length;
+        while ((long) (size + values.size()) * 2 >= capacity && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        if (capacity > table.length) {
+            rehash(capacity);
+        }
+        return ISet.super.addAll(values);
+    }
+
+    /**
+     * Сразу перекладывает все узлы в таблицу размера capacity, доводя до конца идущий перенос
+     */
+    private void rehash(int capacity) {
+        if (oldTable != null) {
+            migrate(oldTable.length);
+        }
+        long start = metrics != null ? System.nanoTime() : 0;
+        Object[] tab = new Object[capacity];
+        for (int i = 0; i < table.length; i++) {
+            Node curr = getNode(table, i);
+            while (curr != null) {
+                Node next = curr.next;
+                int idx = curr.hash & (capacity - 1);
+                curr.next = getNode(tab, idx);
+                tab[idx] = curr;
+                curr = next;
+            }
+        }
+        table = tab;
+        if (metrics != null) {
+            metrics.resizes++;
+            metrics.resizeNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void recordProbes(int probes) {
+        if (metrics != null) {
+            metrics.probes(probes);
+        }
+    }
+
+    @Override
+    public void enableMetrics() {
+        metrics = new MetricsRecorder();
+    }
+
+    @Override
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    /**
+     * Гистограмма длин цепочек строится обходом всех корзин, включая ещё не перенесённые корзины старой таблицы
+     */
+    @Override
+    public SetMetrics metrics() {
+        MetricsRecorder recorder = metrics;
+        if (recorder == null) {
+            return null;
+        }
+        long[] chains = new long[SetMetrics.BUCKETS];
+        if (oldTable == null) {
+            countChains(table, 0, table.length, chains);
+        } else {
+            //корзины i и i + bit новой таблицы заполнены только для перенесённых i
+            int bit = oldTable.length;
+            countChains(table, 0, migrated, chains);
+            countChains(table, bit, bit + migrated, chains);
+            countChains(oldTable, migrated, bit, chains);
+        }
+        return recorder.snapshot(chains, 0, 0);
+    }
+
+    private void countChains(Object[] tab, int from, int to, long[] chains) {
+        for (int i = from; i < to; i++) {
+            int length = 0;
+            for (Node curr = getNode(tab, i); curr != null; curr = curr.next) {
+                length++;
+            }
+            chains[SetMetrics.bucket(length)]++;
+        }
+    }
+
     private int hash(E value) {
-        return Math.abs(value.hashCode()) % table.length;
+        int h = value.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return таблица, в которой сейчас лежит корзина для хеша h
+     */
+    private Object[] tableFor(int h) {
+        if (oldTable != null && (h & (oldTable.length - 1)) >= migrated) {
+            return oldTable;
+        }
+        return table;
     }
 
     @SuppressWarnings("unchecked")
-    private Node getNode(int idx) {
-        return (Node) table[idx];
+    private Node getNode(Object[] tab, int idx) {
+        return (Node) tab[idx];
     }
 
     private int compare(E v1, E v2) {
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
-    @SuppressWarnings("unchecked")
     private void resize() {
         if (size * 2 < table.length) {
             return;
         }
-        Object[] old = this.table;
-        size = 0;
+        if (oldTable != null) {
+            //предыдущий перенос не успел закончиться - доводим его до конца
+            migrate(oldTable.length);
+        }
+        oldTable = table;
         table = new Object[table.length << 1];
-        for (int i = 0; i < old.length; i++) {
-            Node node = (Node) old[i];
-            if (node != null) {
-                Node curr = node;
-                while (curr != null) {
-                    Node next = curr.next;
-                    //FIXME: insert value in head (all unique)
-                    add(curr.value);
-                    curr.next = null;
-                    curr.value = null;
-                    curr = next;
+        migrated = 0;
+        if (metrics != null) {
+            metrics.resizes++;
+        }
+        migrate();
+    }
+
+    private void migrate() {
+        migrate(MIGRATE_STEP);
+    }
+
+    /**
+     * Переносит следующие buckets корзин старой таблицы
+     */
+    private void migrate(int buckets) {
+        if (oldTable == null) {
+            return;
+        }
+        long start = metrics != null ? System.nanoTime() : 0;
+        int bit = oldTable.length;
+        int end = Math.min(migrated + buckets, oldTable.length);
+        for (int i = migrated; i < end; i++) {
+            Node low = null;
+            Node high = null;
+            Node curr = getNode(oldTable, i);
+            while (curr != null) {
+                Node next = curr.next;
+                if ((curr.hash & bit) == 0) {
+                    curr.next = low;
+                    low = curr;
+                } else {
+                    curr.next = high;
+                    high = curr;
                 }
-                old[i] = null;
+                curr = next;
             }
+            oldTable[i] = null;
+            table[i] = low;
+            table[i + bit] = high;
+        }
+        migrated = end;
+        if (migrated == oldTable.length) {
+            oldTable = null;
+        }
+        if (metrics != null) {
+            metrics.resizeNanos += System.nanoTime() - start;
         }
     }
 
     private void print() {
+        if (oldTable != null) {
+            for (int i = migrated; i < oldTable.length; i++) {
+                System.out.println("old idx = " + i + ", " + oldTable[i]);
+            }
+        }
         for (int i = 0; i < table.length; i++) {
-            Node curr = getNode(i);
-            System.out.println("idx = " + i + ", " + curr);
+            System.out.println("idx = " + i + ", " + table[i]);
         }
         System.out.println("-------------------------");
     }
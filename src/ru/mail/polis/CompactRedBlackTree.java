@@ -0,0 +1,472 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * Красно-чёрное дерево без объектов-узлов: узел - это номер ячейки в параллельных массивах
+ * keys, left, right, parent, а красные узлы отмечены в BitSet.
+ * На ключ уходит около 16 байт вместо ~40 у {@link RedBlackTree}, и сборщику мусора нечего обходить, кроме самих ключей.
+ * Ячейка 0 - общий чёрный лист NIL, освобождённые ячейки связаны в список через left и переиспользуются.
+ * Алгоритмы те же, что в {@link RedBlackTree} (Кормен и др., гл. 13).
+ */
+public class CompactRedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final int NIL = 0;
+
+    private final int INITIAL_CAPACITY = 16;
+
+    private final Comparator<E> comparator;
+    private Object[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private final BitSet red = new BitSet();
+    private int root = NIL;
+    private int size;
+    /**
+     * Ячейки [1, allocated] хоть раз выдавались
+     */
+    private int allocated;
+    private int freeHead = NIL;
+
+    public CompactRedBlackTree() {
+        this(null);
+    }
+
+    public CompactRedBlackTree(Comparator<E> comparator) {
+        this.comparator = comparator;
+        this.keys = new Object[INITIAL_CAPACITY];
+        this.left = new int[INITIAL_CAPACITY];
+        this.right = new int[INITIAL_CAPACITY];
+        this.parent = new int[INITIAL_CAPACITY];
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E key(int node) {
+        return (E) keys[node];
+    }
+
+    private boolean isRed(int node) {
+        return red.get(node);
+    }
+
+    private void setRed(int node, boolean isRed) {
+        red.set(node, isRed);
+    }
+
+    private int allocate(E key) {
+        int node = freeHead;
+        if (node != NIL) {
+            freeHead = left[node];
+        } else {
+            node = ++allocated;
+            if (node == keys.length) {
+                int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+            }
+        }
+        keys[node] = key;
+        left[node] = NIL;
+        right[node] = NIL;
+        parent[node] = NIL;
+        return node;
+    }
+
+    private void free(int node) {
+        keys[node] = null;
+        setRed(node, false);
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    private int find(E value) {
+        int curr = root;
+        while (curr != NIL) {
+            int cmp = compare(value, key(curr));
+            if (cmp == 0) {
+                return curr;
+            }
+            curr = cmp < 0 ? left[curr] : right[curr];
+        }
+        return NIL;
+    }
+
+    private int minimum(int node) {
+        while (left[node] != NIL) {
+            node = left[node];
+        }
+        return node;
+    }
+
+    private int maximum(int node) {
+        while (right[node] != NIL) {
+            node = right[node];
+        }
+        return node;
+    }
+
+    /**
+     * Следующий по порядку узел по ссылкам на родителя, без стека
+     */
+    private int successor(int node) {
+        if (right[node] != NIL) {
+            return minimum(right[node]);
+        }
+        int p = parent[node];
+        while (p != NIL && node == right[p]) {
+            node = p;
+            p = parent[p];
+        }
+        return p;
+    }
+
+    private void leftRotate(int x) {
+        int y = right[x];
+        right[x] = left[y];
+        if (left[y] != NIL) {
+            parent[left[y]] = x;
+        }
+        replaceChild(x, y);
+        left[y] = x;
+        parent[x] = y;
+    }
+
+    private void rightRotate(int x) {
+        int y = left[x];
+        left[x] = right[y];
+        if (right[y] != NIL) {
+            parent[right[y]] = x;
+        }
+        replaceChild(x, y);
+        right[y] = x;
+        parent[x] = y;
+    }
+
+    /**
+     * Ставит k на место n у родителя n; у NIL родитель тоже записывается, fixRemove на это опирается
+     */
+    private void replaceChild(int n, int k) {
+        int p = parent[n];
+        if (p == NIL) {
+            root = k;
+        } else if (n == left[p]) {
+            left[p] = k;
+        } else {
+            right[p] = k;
+        }
+        parent[k] = p;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return find(value) != NIL;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int p = NIL;
+        int curr = root;
+        int cmp = 0;
+        while (curr != NIL) {
+            cmp = compare(value, key(curr));
+            if (cmp == 0) {
+                return false;
+            }
+            p = curr;
+            curr = cmp < 0 ? left[curr] : right[curr];
+        }
+        int node = allocate(value);
+        parent[node] = p;
+        if (p == NIL) {
+            root = node;
+        } else if (cmp < 0) {
+            left[p] = node;
+        } else {
+            right[p] = node;
+        }
+        setRed(node, true);
+        fixAdd(node);
+        size++;
+        return true;
+    }
+
+    private void fixAdd(int node) {
+        while (isRed(parent[node])) {
+            int p = parent[node];
+            int g = parent[p];
+            if (p == left[g]) {
+                int uncle = right[g];
+                if (isRed(uncle)) {
+                    setRed(p, false);
+                    setRed(uncle, false);
+                    setRed(g, true);
+                    node = g;
+                } else {
+                    if (node == right[p]) {
+                        node = p;
+                        leftRotate(node);
+                    }
+                    setRed(parent[node], false);
+                    setRed(parent[parent[node]], true);
+                    rightRotate(parent[parent[node]]);
+                }
+            } else {
+                int uncle = left[g];
+                if (isRed(uncle)) {
+                    setRed(p, false);
+                    setRed(uncle, false);
+                    setRed(g, true);
+                    node = g;
+                } else {
+                    if (node == left[p]) {
+                        node = p;
+                        rightRotate(node);
+                    }
+                    setRed(parent[node], false);
+                    setRed(parent[parent[node]], true);
+                    leftRotate(parent[parent[node]]);
+                }
+            }
+        }
+        setRed(root, false);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int z = find(value);
+        if (z == NIL) {
+            return false;
+        }
+        int x;
+        boolean isFixNeeded = !isRed(z);
+        if (left[z] == NIL) {
+            x = right[z];
+            replaceChild(z, right[z]);
+        } else if (right[z] == NIL) {
+            x = left[z];
+            replaceChild(z, left[z]);
+        } else {
+            int y = minimum(right[z]);
+            isFixNeeded = !isRed(y);
+            x = right[y];
+            if (parent[y] == z) {
+                parent[x] = y;
+            } else {
+                replaceChild(y, right[y]);
+                right[y] = right[z];
+                parent[right[y]] = y;
+            }
+            replaceChild(z, y);
+            left[y] = left[z];
+            parent[left[y]] = y;
+            setRed(y, isRed(z));
+        }
+        if (isFixNeeded) {
+            fixRemove(x);
+        }
+        free(z);
+        size--;
+        return true;
+    }
+
+    private void fixRemove(int node) {
+        while (node != root && !isRed(node)) {
+            int p = parent[node];
+            if (node == left[p]) {
+                int w = right[p];
+                if (isRed(w)) {
+                    setRed(w, false);
+                    setRed(p, true);
+                    leftRotate(p);
+                    w = right[p];
+                }
+                if (!isRed(left[w]) && !isRed(right[w])) {
+                    setRed(w, true);
+                    node = p;
+                    continue;
+                } else if (!isRed(right[w])) {
+                    setRed(left[w], false);
+                    setRed(w, true);
+                    rightRotate(w);
+                    w = right[p];
+                }
+                setRed(w, isRed(p));
+                setRed(p, false);
+                setRed(right[w], false);
+                leftRotate(p);
+                node = root;
+            } else {
+                int w = left[p];
+                if (isRed(w)) {
+                    setRed(w, false);
+                    setRed(p, true);
+                    rightRotate(p);
+                    w = left[p];
+                }
+                if (!isRed(right[w]) && !isRed(left[w])) {
+                    setRed(w, true);
+                    node = p;
+                    continue;
+                } else if (!isRed(left[w])) {
+                    setRed(right[w], false);
+                    setRed(w, true);
+                    leftRotate(w);
+                    w = left[p];
+                }
+                setRed(w, isRed(p));
+                setRed(p, false);
+                setRed(left[w], false);
+                rightRotate(p);
+                node = root;
+            }
+        }
+        setRed(node, false);
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return key(minimum(root));
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return key(maximum(root));
+    }
+
+    @Override
+    public E floor(E value) {
+        int node = nearest(value, true, true);
+        return node == NIL ? null : key(node);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        int node = nearest(value, false, true);
+        return node == NIL ? null : key(node);
+    }
+
+    @Override
+    public E higher(E value) {
+        int node = nearest(value, false, false);
+        return node == NIL ? null : key(node);
+    }
+
+    @Override
+    public E lower(E value) {
+        int node = nearest(value, true, false);
+        return node == NIL ? null : key(node);
+    }
+
+    /**
+     * Один спуск от корня: запоминаем последний узел, после которого свернули в нужную сторону.
+     */
+    private int nearest(E value, boolean lower, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int curr = root;
+        int best = NIL;
+        while (curr != NIL) {
+            int cmp = compare(value, key(curr));
+            if (cmp == 0 && inclusive) {
+                return curr;
+            }
+            if (lower ? cmp > 0 : cmp < 0) {
+                best = curr;
+                curr = lower ? right[curr] : left[curr];
+            } else {
+                curr = lower ? left[curr] : right[curr];
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> result = new ArrayList<>(size);
+        forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new NodeIterator(root == NIL ? NIL : minimum(root));
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        return new NodeIterator(nearest(fromElement, false, true));
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return SortedIteratorSpliterator.of(iterator(), size, 0, comparator);
+    }
+
+    private class NodeIterator implements Iterator<E> {
+        private int next;
+
+        NodeIterator(int first) {
+            this.next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        @Override
+        public E next() {
+            if (next == NIL) {
+                throw new NoSuchElementException();
+            }
+            E result = key(next);
+            next = successor(next);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package ru.mail.polis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * АВЛ-дерево с оптимистичным чтением по версиям узлов
+ * (Bronson, Casper, Chafi, Olukotun, "A Practical Concurrent Binary Search Tree").
+ * <ul>
+ *     <li>contains, first и last не берут блокировок: спускаясь, читатель запоминает версию узла и после чтения
+ *     ребёнка проверяет, что она не изменилась; при конфликте повторяет шаг с ближайшего неизменившегося предка;</li>
+ *     <li>версия узла меняется только когда его поддерево теряет ключи (поворот опускает узел, узел вырезается),
+ *     на время поворота узел помечается SHRINKING;</li>
+ *     <li>ключи между узлами не переезжают: удалённый узел с двумя детьми остаётся в дереве как маршрутный
+ *     (present = false) и вырезается, когда у него остаётся не больше одного ребёнка;</li>
+ *     <li>пишущие операции выполняются под одной блокировкой, читатели её не видят.</li>
+ * </ul>
+ * Навигация, итератор и inorderTraverse тоже не блокируются: это слабо согласованный курсор на явном стеке
+ * с проверкой версий (см. {@link Cursor}), обход всего дерева - O(n) без конфликтов с писателями.
+ */
+public class ConcurrentAVLTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final long SHRINKING = 1;
+    private static final long UNLINKED = 2;
+    private static final long VERSION_STEP = 4;
+
+    private static final int NOT_FOUND = 0;
+    private static final int FOUND = 1;
+    private static final int RETRY = 2;
+
+    private final class Node {
+        private final E key;
+        private volatile boolean present;
+        private volatile long version;
+        private volatile Node left;
+        private volatile Node right;
+        private int height;
+
+        Node(E key) {
+            this.key = key;
+            this.present = true;
+            this.height = 1;
+        }
+
+        private int bFactor() {
+            return height(right) - height(left);
+        }
+
+        void fixHeight() {
+            int r = height(right);
+            int l = height(left);
+            height = (l > r ? l : r) + 1;
+        }
+    }
+
+    /**
+     * Корень дерева - правый ребёнок holder; сам holder никогда не поворачивается и его версия не меняется
+     */
+    private final Node holder = new Node(null);
+    /**
+     * Возвращается из attemptExtreme вместо узла, когда шаг нужно повторить с предка
+     */
+    private final Node retryNode = new Node(null);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Comparator<E> comparator;
+    private final List<Node> path = new ArrayList<>();
+    private volatile int size;
+
+    public ConcurrentAVLTree() {
+        this(null);
+    }
+
+    public ConcurrentAVLTree(Comparator<E> comparator) {
+        this.comparator = comparator;
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    private int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static boolean isChanging(long version) {
+        return (version & (SHRINKING | UNLINKED)) != 0;
+    }
+
+    private void waitUntilNotShrinking(Node node) {
+        while ((node.version & SHRINKING) != 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        //holder не меняется, поэтому повторять с него не нужно
+        return attemptGet(value, holder, true, holder.version) == FOUND;
+    }
+
+    /**
+     * Ищет value в поддереве ребёнка node со стороны right, пока версия node равна nodeVersion.
+     */
+    private int attemptGet(E value, Node node, boolean right, long nodeVersion) {
+        while (true) {
+            Node child = right ? node.right : node.left;
+            if (node.version != nodeVersion) {
+                return RETRY;
+            }
+            if (child == null) {
+                return NOT_FOUND;
+            }
+            int cmp = compare(value, child.key);
+            if (cmp == 0) {
+                return child.present ? FOUND : NOT_FOUND;
+            }
+            long childVersion = child.version;
+            if (isChanging(childVersion)) {
+                waitUntilNotShrinking(child);
+                continue;
+            }
+            if (child != (right ? node.right : node.left)) {
+                continue;
+            }
+            if (node.version != nodeVersion) {
+                return RETRY;
+            }
+            int result = attemptGet(value, child, cmp > 0, childVersion);
+            if (result != RETRY) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public E first() {
+        return extreme(false);
+    }
+
+    @Override
+    public E last() {
+        return extreme(true);
+    }
+
+    private E extreme(boolean right) {
+        E result = extremeOrNull(right);
+        if (result == null) {
+            throw new NoSuchElementException("set is empty, no " + (right ? "last" : "first") + " element");
+        }
+        return result;
+    }
+
+    private E extremeOrNull(boolean right) {
+        while (true) {
+            Node root = holder.right;
+            if (root == null) {
+                return null;
+            }
+            long rootVersion = root.version;
+            if (isChanging(rootVersion)) {
+                waitUntilNotShrinking(root);
+                continue;
+            }
+            if (root != holder.right) {
+                continue;
+            }
+            Node result = attemptExtreme(right, root, rootVersion);
+            if (result != retryNode) {
+                return result.key;
+            }
+        }
+    }
+
+    private Node attemptExtreme(boolean right, Node node, long nodeVersion) {
+        while (true) {
+            Node child = right ? node.right : node.left;
+            //как в attemptGet: у вырезанного или опущенного узла ссылки больше не меняются,
+            //и без этой проверки цикл перечитывал бы того же вырезанного ребёнка
+            if (node.version != nodeVersion) {
+                return retryNode;
+            }
+            if (child == null) {
+                //маршрутный узел без ребёнка с этой стороны бывает только посреди записи - писатель его вырежет
+                if (!node.present) {
+                    return retryNode;
+                }
+                return node;
+            }
+            long childVersion = child.version;
+            if (isChanging(childVersion)) {
+                waitUntilNotShrinking(child);
+                continue;
+            }
+            if (child != (right ? node.right : node.left)) {
+                continue;
+            }
+            if (node.version != nodeVersion) {
+                return retryNode;
+            }
+            Node result = attemptExtreme(right, child, childVersion);
+            if (result != retryNode) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        writeLock.lock();
+        try {
+            path.clear();
+            path.add(holder);
+            Node curr = holder.right;
+            int cmp = 1;
+            while (curr != null) {
+                cmp = compare(value, curr.key);
+                if (cmp == 0) {
+                    if (curr.present) {
+                        return false;
+                    }
+                    //маршрутный узел снова становится элементом, структура не меняется
+                    curr.present = true;
+                    size++;
+                    return true;
+                }
+                path.add(curr);
+                curr = cmp < 0 ? curr.left : curr.right;
+            }
+            Node parent = path.get(path.size() - 1);
+            if (cmp < 0) {
+                parent.left = new Node(value);
+            } else {
+                parent.right = new Node(value);
+            }
+            size++;
+            rebalance();
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        writeLock.lock();
+        try {
+            path.clear();
+            path.add(holder);
+            Node curr = holder.right;
+            while (curr != null) {
+                int cmp = compare(value, curr.key);
+                if (cmp == 0) {
+                    break;
+                }
+                path.add(curr);
+                curr = cmp < 0 ? curr.left : curr.right;
+            }
+            if (curr == null || !curr.present) {
+                return false;
+            }
+            //точка линеаризации: дальше читатели считают ключ отсутствующим
+            curr.present = false;
+            size--;
+            if (curr.left == null || curr.right == null) {
+                unlink(path.get(path.size() - 1), curr);
+                rebalance();
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Восстанавливает высоты и баланс снизу вверх по пути из {@link #path}
+     */
+    private void rebalance() {
+        for (int i = path.size() - 1; i >= 1; i--) {
+            Node parent = path.get(i - 1);
+            Node node = path.get(i);
+            Node fixed = fix(parent, node);
+            while (fixed != node && fixed != null) {
+                node = fixed;
+                fixed = fix(parent, node);
+            }
+        }
+    }
+
+    /**
+     * @return the node now standing in place of node (itself if nothing changed)
+     */
+    private Node fix(Node parent, Node node) {
+        if (!node.present && (node.left == null || node.right == null)) {
+            return unlink(parent, node);
+        }
+        node.fixHeight();
+        int bf = node.bFactor();
+        if (bf == 2) {
+            if (node.right.bFactor() < 0) {
+                rotateRight(node, node.right);
+            }
+            return rotateLeft(parent, node);
+        }
+        if (bf == -2) {
+            if (node.left.bFactor() > 0) {
+                rotateLeft(node, node.left);
+            }
+            return rotateRight(parent, node);
+        }
+        return node;
+    }
+
+    private void replaceChild(Node parent, Node oldChild, Node newChild) {
+        if (parent.left == oldChild) {
+            parent.left = newChild;
+        } else {
+            parent.right = newChild;
+        }
+    }
+
+    /**
+     * Вырезает узел, у которого не больше одного ребёнка
+     *
+     * @return the child that took its place
+     */
+    private Node unlink(Node parent, Node node) {
+        Node child = node.left != null ? node.left : node.right;
+        replaceChild(parent, node, child);
+        node.version = UNLINKED;
+        return child;
+    }
+
+    private Node rotateRight(Node parent, Node node) {
+        Node pivot = node.left;
+        long version = node.version;
+        node.version = version | SHRINKING;
+        node.left = pivot.right;
+        pivot.right = node;
+        replaceChild(parent, node, pivot);
+        node.fixHeight();
+        pivot.fixHeight();
+        node.version = version + VERSION_STEP;
+        if (!node.present && node.left == null) {
+            unlink(pivot, node);
+            pivot.fixHeight();
+        }
+        return pivot;
+    }
+
+    private Node rotateLeft(Node parent, Node node) {
+        Node pivot = node.right;
+        long version = node.version;
+        node.version = version | SHRINKING;
+        node.right = pivot.left;
+        pivot.left = node;
+        replaceChild(parent, node, pivot);
+        node.fixHeight();
+        pivot.fixHeight();
+        node.version = version + VERSION_STEP;
+        if (!node.present && node.right == null) {
+            unlink(pivot, node);
+            pivot.fixHeight();
+        }
+        return pivot;
+    }
+
+    @Override
+    public E floor(E value) {
+        return nearest(value, false, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return nearest(value, true, true);
+    }
+
+    @Override
+    public E higher(E value) {
+        return nearest(value, true, false);
+    }
+
+    @Override
+    public E lower(E value) {
+        return nearest(value, false, false);
+    }
+
+    /**
+     * Ближайший присутствующий элемент в сторону greater - первый элемент курсора от value.
+     */
+    private E nearest(E value, boolean greater, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return new Cursor(value, greater, inclusive).next;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> result = new ArrayList<>(size);
+        forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Cursor(null, true, false);
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        return new Cursor(fromElement, true, true);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return SortedIteratorSpliterator.of(iterator(), -1, Spliterator.CONCURRENT, comparator);
+    }
+
+    /**
+     * Слабо согласованный обход без блокировок в сторону greater на явном стеке, как у остальных деревьев.
+     * Вместе с узлом в стеке лежит его версия: пока она не изменилась, поддерево узла не теряло ключей,
+     * и его дальнюю сторону можно обходить. Спуск проверяет версии так же, как {@link #attemptGet};
+     * при конфликте стек строится заново спуском от holder к первому элементу за последним выданным.
+     * Каждый элемент сравнивается с последним выданным, поэтому порядок строгий и без повторов
+     * даже после поворотов над узлами стека.
+     */
+    private final class Cursor implements Iterator<E> {
+        private final boolean greater;
+        private final ArrayDeque<Node> stack = new ArrayDeque<>();
+        /**
+         * versions[i] - версия i-го снизу узла стека в момент, когда его положили
+         */
+        private long[] versions = new long[16];
+        /**
+         * Выдаются только элементы дальше bound (или равные ему при inclusive); null - без ограничения
+         */
+        private E bound;
+        private boolean inclusive;
+        private E next;
+
+        Cursor(E from, boolean greater, boolean inclusive) {
+            this.greater = greater;
+            this.bound = from;
+            this.inclusive = inclusive;
+            seek();
+            advance();
+        }
+
+        /**
+         * @return the sign of key - bound in the direction of the cursor; 1 if there is no bound
+         */
+        private int cmp(E key) {
+            if (bound == null) {
+                return 1;
+            }
+            int cmp = Integer.signum(compare(key, bound));
+            return greater ? cmp : -cmp;
+        }
+
+        private boolean beyondBound(E key) {
+            int cmp = cmp(key);
+            return cmp > 0 || (cmp == 0 && inclusive);
+        }
+
+        private void push(Node node, long version) {
+            int depth = stack.size();
+            if (depth == versions.length) {
+                versions = Arrays.copyOf(versions, depth * 2);
+            }
+            versions[depth] = version;
+            stack.push(node);
+        }
+
+        private Node child(Node node, boolean far) {
+            return far == greater ? node.right : node.left;
+        }
+
+        /**
+         * Спуск от holder: в стек попадают узлы за bound, после которых свернули к bound
+         */
+        private void seek() {
+            retry:
+            while (true) {
+                stack.clear();
+                Node node = holder;
+                long nodeVersion = holder.version;
+                //корень - правый ребёнок holder при любом направлении обхода
+                boolean far = greater;
+                while (true) {
+                    Node child = child(node, far);
+                    if (node.version != nodeVersion) {
+                        continue retry;
+                    }
+                    if (child == null) {
+                        return;
+                    }
+                    long childVersion = child.version;
+                    if (isChanging(childVersion)) {
+                        waitUntilNotShrinking(child);
+                        continue;
+                    }
+                    if (child != child(node, far)) {
+                        continue;
+                    }
+                    if (node.version != nodeVersion) {
+                        continue retry;
+                    }
+                    int cmp = cmp(child.key);
+                    if (cmp > 0 || (cmp == 0 && inclusive)) {
+                        push(child, childVersion);
+                        if (cmp == 0) {
+                            //ближе к bound ключей нет
+                            return;
+                        }
+                        far = false;
+                    } else {
+                        far = true;
+                    }
+                    node = child;
+                    nodeVersion = childVersion;
+                }
+            }
+        }
+
+        /**
+         * Кладёт в стек ближнюю ветвь дальнего поддерева node.
+         *
+         * @return false if a version check failed and the stack must be rebuilt
+         */
+        private boolean pushFarSubtree(Node node, long nodeVersion) {
+            boolean far = true;
+            while (true) {
+                Node child = child(node, far);
+                if (node.version != nodeVersion) {
+                    return false;
+                }
+                if (child == null) {
+                    return true;
+                }
+                long childVersion = child.version;
+                if (isChanging(childVersion)) {
+                    waitUntilNotShrinking(child);
+                    continue;
+                }
+                if (child != child(node, far)) {
+                    continue;
+                }
+                if (node.version != nodeVersion) {
+                    return false;
+                }
+                push(child, childVersion);
+                node = child;
+                nodeVersion = childVersion;
+                far = false;
+            }
+        }
+
+        private void advance() {
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                long version = versions[stack.size()];
+                boolean present = node.present;
+                if (!pushFarSubtree(node, version)) {
+                    seek();
+                    continue;
+                }
+                if (present && beyondBound(node.key)) {
+                    next = node.key;
+                    return;
+                }
+            }
+            next = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            E result = next;
+            bound = result;
+            inclusive = false;
+            advance();
+            return result;
+        }
+    }
+}
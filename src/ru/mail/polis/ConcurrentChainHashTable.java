@@ -0,0 +1,304 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасная хеш-таблица с цепочками.
+ * <ul>
+ *     <li>contains не берёт блокировок: читает корзины через volatile и идёт по цепочке;</li>
+ *     <li>add / remove блокируют только голову своей корзины, пустая корзина заполняется CAS-ом;</li>
+ *     <li>перехеширование инкрементальное: новая таблица создаётся рядом со старой, а каждая пишущая операция
+ *     переносит не больше {@link #STRIDE} корзин. Перенесённая корзина заменяется узлом-переадресацией,
+ *     по которому читатели и писатели уходят в новую таблицу.</li>
+ * </ul>
+ */
+public class ConcurrentChainHashTable<E extends Comparable<E>> implements ISet<E> {
+
+    private static final int MOVED = -1;
+    private static final int STRIDE = 16;
+
+    private final int INITIAL_CAPACITY = 8;
+
+    static class Node<E> {
+        final int hash;
+        final E value;
+        volatile Node<E> next;
+
+        Node(int hash, E value, Node<E> next) {
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Стоит в уже перенесённой корзине старой таблицы
+     */
+    static class ForwardingNode<E> extends Node<E> {
+        final Resize<E> resize;
+
+        ForwardingNode(Resize<E> resize) {
+            super(MOVED, null, null);
+            this.resize = resize;
+        }
+    }
+
+    /**
+     * Состояние одного перехеширования from -> to
+     */
+    static class Resize<E> {
+        final AtomicReferenceArray<Node<E>> from;
+        final AtomicReferenceArray<Node<E>> to;
+        final ForwardingNode<E> forward;
+        /**
+         * Корзины [0, transferIndex) ещё никто не взял на перенос
+         */
+        final AtomicInteger transferIndex;
+        /**
+         * Сколько корзин ещё не перенесено
+         */
+        final AtomicInteger pending;
+
+        Resize(AtomicReferenceArray<Node<E>> from) {
+            this.from = from;
+            this.to = new AtomicReferenceArray<>(from.length() << 1);
+            this.forward = new ForwardingNode<>(this);
+            this.transferIndex = new AtomicInteger(from.length());
+            this.pending = new AtomicInteger(from.length());
+        }
+    }
+
+    private final Comparator<E> comparator;
+    private final LongAdder count = new LongAdder();
+    private final AtomicReference<Resize<E>> resize = new AtomicReference<>();
+    private final Object resizeLock = new Object();
+    private volatile AtomicReferenceArray<Node<E>> table;
+
+    public ConcurrentChainHashTable() {
+        this(null);
+    }
+
+    public ConcurrentChainHashTable(Comparator<E> comparator) {
+        this.comparator = comparator;
+        this.table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int size() {
+        long size = count.sum();
+        return size < 0 ? 0 : size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count.sum() <= 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = spread(value.hashCode());
+        AtomicReferenceArray<Node<E>> tab = table;
+        while (true) {
+            Node<E> curr = tab.get(h & (tab.length() - 1));
+            if (curr == null) {
+                return false;
+            }
+            if (curr.hash == MOVED) {
+                tab = ((ForwardingNode<E>) curr).resize.to;
+                continue;
+            }
+            for (; curr != null; curr = curr.next) {
+                if (curr.hash == h && compare(value, curr.value) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = spread(value.hashCode());
+        AtomicReferenceArray<Node<E>> tab = table;
+        while (true) {
+            int idx = h & (tab.length() - 1);
+            Node<E> head = tab.get(idx);
+            if (head == null) {
+                if (tab.compareAndSet(idx, null, new Node<>(h, value, null))) {
+                    break;
+                }
+            } else if (head.hash == MOVED) {
+                Resize<E> r = ((ForwardingNode<E>) head).resize;
+                transferStride(r);
+                tab = r.to;
+            } else {
+                synchronized (head) {
+                    if (tab.get(idx) != head) {
+                        continue;
+                    }
+                    Node<E> curr = head;
+                    while (true) {
+                        if (curr.hash == h && compare(value, curr.value) == 0) {
+                            return false;
+                        }
+                        if (curr.next == null) {
+                            curr.next = new Node<>(h, value, null);
+                            break;
+                        }
+                        curr = curr.next;
+                    }
+                }
+                break;
+            }
+        }
+        count.increment();
+        afterWrite();
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = spread(value.hashCode());
+        AtomicReferenceArray<Node<E>> tab = table;
+        while (true) {
+            int idx = h & (tab.length() - 1);
+            Node<E> head = tab.get(idx);
+            if (head == null) {
+                return false;
+            }
+            if (head.hash == MOVED) {
+                Resize<E> r = ((ForwardingNode<E>) head).resize;
+                transferStride(r);
+                tab = r.to;
+                continue;
+            }
+            synchronized (head) {
+                if (tab.get(idx) != head) {
+                    continue;
+                }
+                Node<E> prev = null;
+                Node<E> curr = head;
+                while (curr != null && !(curr.hash == h && compare(value, curr.value) == 0)) {
+                    prev = curr;
+                    curr = curr.next;
+                }
+                if (curr == null) {
+                    return false;
+                }
+                //читатели, уже стоящие на curr, дойдут по его next до конца цепочки
+                if (prev == null) {
+                    tab.set(idx, curr.next);
+                } else {
+                    prev.next = curr.next;
+                }
+            }
+            count.decrement();
+            afterWrite();
+            return true;
+        }
+    }
+
+    private static int spread(int h) {
+        return (h ^ (h >>> 16)) & 0x7fffffff;
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Каждая пишущая операция либо помогает идущему перехешированию, либо начинает новое при load factor = 1/2.
+     */
+    private void afterWrite() {
+        Resize<E> r = resize.get();
+        if (r != null) {
+            transferStride(r);
+            return;
+        }
+        AtomicReferenceArray<Node<E>> tab = table;
+        if (count.sum() * 2 < tab.length()) {
+            return;
+        }
+        //под блокировкой только создание новой таблицы, сам перенос идёт без неё
+        synchronized (resizeLock) {
+            if (table != tab || resize.get() != null) {
+                return;
+            }
+            r = new Resize<>(tab);
+            resize.set(r);
+        }
+        transferStride(r);
+    }
+
+    /**
+     * Забирает следующие {@link #STRIDE} корзин и переносит их, каждую под блокировкой её головы.
+     */
+    private void transferStride(Resize<E> r) {
+        int hi;
+        int lo;
+        do {
+            hi = r.transferIndex.get();
+            if (hi <= 0) {
+                return;
+            }
+            lo = Math.max(0, hi - STRIDE);
+        } while (!r.transferIndex.compareAndSet(hi, lo));
+        for (int i = hi - 1; i >= lo; i--) {
+            transferBin(r, i);
+        }
+        if (r.pending.addAndGet(lo - hi) == 0) {
+            synchronized (resizeLock) {
+                table = r.to;
+                resize.set(null);
+            }
+        }
+    }
+
+    /**
+     * Расщепляет корзину i на i и i + n новой таблицы. Узлы копируются, а не перевешиваются,
+     * чтобы читатели, идущие по старой цепочке, не потеряли элементы.
+     */
+    private void transferBin(Resize<E> r, int i) {
+        int n = r.from.length();
+        while (true) {
+            Node<E> head = r.from.get(i);
+            if (head == null) {
+                if (r.from.compareAndSet(i, null, r.forward)) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (head) {
+                if (r.from.get(i) != head) {
+                    continue;
+                }
+                Node<E> low = null;
+                Node<E> high = null;
+                for (Node<E> curr = head; curr != null; curr = curr.next) {
+                    if ((curr.hash & n) == 0) {
+                        low = new Node<>(curr.hash, curr.value, low);
+                    } else {
+                        high = new Node<>(curr.hash, curr.value, high);
+                    }
+                }
+                r.to.set(i, low);
+                r.to.set(i + n, high);
+                r.from.set(i, r.forward);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Неблокирующий список с пропусками (Herlihy, Shavit, "The Art of Multiprocessor Programming", 14.4).
+ * Удаление сначала помечает ссылки next узла на всех уровнях (логическое удаление),
+ * физически помеченные узлы вырезает любой проходящий мимо find.
+ * contains, first, last и навигация только читают и никогда не повторяются;
+ * обход (inorderTraverse, iterator) слабо согласован: видит элементы, присутствовавшие на момент прохода мимо них.
+ */
+public class ConcurrentSkipListSortedSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final int MAX_LEVEL = 32;
+
+    static final class Node<E> {
+        final E value;
+        final AtomicMarkableReference<Node<E>>[] next;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node(E value, int topLevel) {
+            this.value = value;
+            this.next = (AtomicMarkableReference<Node<E>>[]) new AtomicMarkableReference[topLevel + 1];
+            for (int level = 0; level <= topLevel; level++) {
+                next[level] = new AtomicMarkableReference<>(null, false);
+            }
+        }
+
+        int topLevel() {
+            return next.length - 1;
+        }
+
+        boolean isDeleted() {
+            return next[0].isMarked();
+        }
+    }
+
+    private final Node<E> head = new Node<>(null, MAX_LEVEL - 1);
+    private final LongAdder size = new LongAdder();
+    private final Comparator<E> comparator;
+
+    public ConcurrentSkipListSortedSet() {
+        this(null);
+    }
+
+    public ConcurrentSkipListSortedSet(Comparator<E> comparator) {
+        this.comparator = comparator;
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    private static int randomLevel() {
+        //уровень k выпадает с вероятностью 2^-(k+1)
+        return Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << (MAX_LEVEL - 1)));
+    }
+
+    /**
+     * Заполняет preds / succs соседями value на каждом уровне, по дороге вырезая помеченные узлы.
+     *
+     * @return true if an unmarked node with the value is present at the bottom level
+     */
+    private boolean find(E value, Node<E>[] preds, Node<E>[] succs) {
+        boolean[] marked = {false};
+        retry:
+        while (true) {
+            Node<E> pred = head;
+            Node<E> curr = null;
+            for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+                curr = pred.next[level].getReference();
+                while (curr != null) {
+                    Node<E> succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+                            continue retry;
+                        }
+                        curr = succ;
+                        if (curr == null) {
+                            break;
+                        }
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (curr != null && compare(curr.value, value) < 0) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return curr != null && compare(curr.value, value) == 0;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <E> Node<E>[] newNodes() {
+        return (Node<E>[]) new Node[MAX_LEVEL];
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int topLevel = randomLevel();
+        Node<E>[] preds = newNodes();
+        Node<E>[] succs = newNodes();
+        while (true) {
+            if (find(value, preds, succs)) {
+                return false;
+            }
+            Node<E> node = new Node<>(value, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                node.next[level].set(succs[level], false);
+            }
+            //точка линеаризации - появление узла на нижнем уровне
+            if (!preds[0].next[0].compareAndSet(succs[0], node, false, false)) {
+                continue;
+            }
+            size.increment();
+            linkUpperLevels(node, preds, succs);
+            return true;
+        }
+    }
+
+    private void linkUpperLevels(Node<E> node, Node<E>[] preds, Node<E>[] succs) {
+        boolean[] marked = {false};
+        for (int level = 1; level <= node.topLevel(); level++) {
+            while (true) {
+                Node<E> next = node.next[level].get(marked);
+                if (marked[0]) {
+                    //узел уже удаляют - выше его не поднимаем
+                    return;
+                }
+                Node<E> succ = succs[level];
+                if (next != succ && !node.next[level].compareAndSet(next, succ, false, false)) {
+                    continue;
+                }
+                if (preds[level].next[level].compareAndSet(succ, node, false, false)) {
+                    break;
+                }
+                find(node.value, preds, succs);
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E>[] preds = newNodes();
+        Node<E>[] succs = newNodes();
+        boolean[] marked = {false};
+        if (!find(value, preds, succs)) {
+            return false;
+        }
+        Node<E> victim = succs[0];
+        for (int level = victim.topLevel(); level >= 1; level--) {
+            Node<E> succ = victim.next[level].get(marked);
+            while (!marked[0]) {
+                victim.next[level].compareAndSet(succ, succ, false, true);
+                succ = victim.next[level].get(marked);
+            }
+        }
+        Node<E> succ = victim.next[0].get(marked);
+        while (true) {
+            //точка линеаризации - пометка ссылки нижнего уровня, побеждает только один удаляющий
+            boolean markedByUs = victim.next[0].compareAndSet(succ, succ, false, true);
+            succ = victim.next[0].get(marked);
+            if (markedByUs) {
+                size.decrement();
+                find(value, preds, succs);
+                return true;
+            }
+            if (marked[0]) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> node = ceilingNode(value, true);
+        return node != null && compare(node.value, value) == 0;
+    }
+
+    /**
+     * Спуск без модификаций, помеченные узлы просто пропускаются.
+     *
+     * @return the last node with value less than (or equal to, if orEqual) the given one, or head
+     */
+    private Node<E> predecessor(E value, boolean orEqual) {
+        boolean[] marked = {false};
+        Node<E> pred = head;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            Node<E> curr = pred.next[level].getReference();
+            while (curr != null) {
+                Node<E> succ = curr.next[level].get(marked);
+                if (marked[0]) {
+                    curr = succ;
+                    continue;
+                }
+                int cmp = compare(curr.value, value);
+                if (cmp < 0 || (orEqual && cmp == 0)) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+        }
+        return pred;
+    }
+
+    /**
+     * После спуска идём по нижнему уровню дальше: между найденным предшественником и искомым
+     * местом мог успеть вставиться другой узел.
+     *
+     * @return the first not deleted node with value greater than or equal to (or strictly greater than,
+     * if not inclusive) the given one, or null
+     */
+    private Node<E> ceilingNode(E value, boolean inclusive) {
+        Node<E> curr = predecessor(value, !inclusive).next[0].getReference();
+        while (curr != null) {
+            if (!curr.isDeleted()) {
+                int cmp = compare(curr.value, value);
+                if (cmp > 0 || (inclusive && cmp == 0)) {
+                    return curr;
+                }
+            }
+            curr = curr.next[0].getReference();
+        }
+        return null;
+    }
+
+    /**
+     * @return the first not deleted node after the given one at the bottom level, or null
+     */
+    private Node<E> successor(Node<E> node) {
+        Node<E> curr = node.next[0].getReference();
+        while (curr != null && curr.isDeleted()) {
+            curr = curr.next[0].getReference();
+        }
+        return curr;
+    }
+
+    @Override
+    public int size() {
+        long sum = size.sum();
+        return sum < 0 ? 0 : sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return successor(head) == null;
+    }
+
+    @Override
+    public E first() {
+        Node<E> first = successor(head);
+        if (first == null) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return first.value;
+    }
+
+    @Override
+    public E last() {
+        boolean[] marked = {false};
+        Node<E> pred = head;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            Node<E> curr = pred.next[level].getReference();
+            while (curr != null) {
+                Node<E> succ = curr.next[level].get(marked);
+                if (!marked[0]) {
+                    pred = curr;
+                }
+                curr = succ;
+            }
+        }
+        if (pred == head) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return pred.value;
+    }
+
+    @Override
+    public E floor(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> node = predecessor(value, true);
+        return node == head ? null : node.value;
+    }
+
+    @Override
+    public E lower(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> node = predecessor(value, false);
+        return node == head ? null : node.value;
+    }
+
+    @Override
+    public E ceiling(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> node = ceilingNode(value, true);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public E higher(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node<E> node = ceilingNode(value, false);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> result = new ArrayList<>();
+        forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new NodeIterator(successor(head));
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        return new NodeIterator(ceilingNode(fromElement, true));
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return SortedIteratorSpliterator.of(iterator(), -1, Spliterator.CONCURRENT, comparator);
+    }
+
+    /**
+     * Слабо согласованный обход нижнего уровня
+     */
+    private class NodeIterator implements Iterator<E> {
+        private Node<E> next;
+
+        NodeIterator(Node<E> first) {
+            this.next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            next = successor(next);
+            return value;
+        }
+    }
+}
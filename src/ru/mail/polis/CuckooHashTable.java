@@ -0,0 +1,316 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Кукушкино хеширование с корзинами по {@link #SLOTS} ячейки: у каждого ключа две корзины, выбранные
+ * двумя хеш-функциями, и он лежит в одной из них. Поэтому contains смотрит не больше двух корзин
+ * (8 ячеек подряд в памяти) и, если он не пуст, маленький stash.
+ * Вставка при заполненных корзинах вытесняет случайный ключ в его вторую корзину, и так до {@link #MAX_KICKS} раз;
+ * бездомный ключ уходит в stash, а когда заполнен и он, таблица перестраивается с новыми хеш-функциями
+ * (и удваивается, если загружена хотя бы наполовину). Рост - при заполнении на 7/8.
+ * В ячейках хранится hashCode() ключа, поэтому перестройка и вытеснение не вызывают hashCode() повторно.
+ */
+public class CuckooHashTable<E extends Comparable<E>> implements ISet<E> {
+
+    private static final int SLOTS = 4;
+    private static final int STASH_SIZE = 4;
+    private static final int MAX_KICKS = 256;
+    private static final int MAXIMUM_BUCKETS = 1 << 28;
+
+    private final int INITIAL_BUCKETS = 4;
+
+    private final Comparator<E> comparator;
+    /**
+     * Корзина b занимает ячейки [b * SLOTS, (b + 1) * SLOTS), пустая ячейка - null
+     */
+    private Object[] keys;
+    private int[] hashes;
+    private int mask;
+    private Object[] stash = new Object[STASH_SIZE];
+    private int[] stashHashes = new int[STASH_SIZE];
+    private int stashSize;
+    private int size;
+    /**
+     * Затравки двух хеш-функций, меняются при каждой перестройке
+     */
+    private int seed1;
+    private int seed2;
+    /**
+     * Состояние xorshift для затравок и выбора вытесняемой ячейки
+     */
+    private int random = 0x2545F491;
+    /**
+     * Ключ, которому не нашлось места ни в корзинах, ни в stash, после неудачного {@link #place(Object, int)}
+     */
+    private Object homelessKey;
+    private int homelessHash;
+
+    public CuckooHashTable() {
+        this(null);
+    }
+
+    public CuckooHashTable(Comparator<E> comparator) {
+        this.comparator = comparator;
+        init(INITIAL_BUCKETS);
+    }
+
+    private void init(int buckets) {
+        keys = new Object[buckets * SLOTS];
+        hashes = new int[buckets * SLOTS];
+        mask = buckets - 1;
+        stashSize = 0;
+        Arrays.fill(stash, null);
+        seed1 = nextRandom();
+        seed2 = nextRandom();
+    }
+
+    private int nextRandom() {
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return random;
+    }
+
+    /**
+     * Финальное перемешивание MurmurHash3
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private int bucket1(int h) {
+        return mix(h ^ seed1) & mask;
+    }
+
+    /**
+     * Вторая корзина всегда отличается от первой, иначе у ключа было бы вдвое меньше мест
+     */
+    private int bucket2(int h, int bucket1) {
+        int b = mix(h ^ seed2) & mask;
+        return b == bucket1 ? b ^ 1 : b;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = value.hashCode();
+        int b1 = bucket1(h);
+        return indexIn(b1, value, h) >= 0 || indexIn(bucket2(h, b1), value, h) >= 0
+                || (stashSize > 0 && stashIndex(value, h) >= 0);
+    }
+
+    private int indexIn(int bucket, E value, int h) {
+        int start = bucket * SLOTS;
+        for (int i = start; i < start + SLOTS; i++) {
+            if (hashes[i] == h && keys[i] != null && compare(value, elementAt(keys[i])) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int stashIndex(E value, int h) {
+        for (int i = 0; i < stashSize; i++) {
+            if (stashHashes[i] == h && compare(value, elementAt(stash[i])) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (contains(value)) {
+            return false;
+        }
+        if (size >= maxLoad(keys.length) && mask + 1 < MAXIMUM_BUCKETS) {
+            rebuild((mask + 1) << 1, null, 0);
+        }
+        if (!place(value, value.hashCode())) {
+            rebuild(size * 2 >= keys.length ? (mask + 1) << 1 : mask + 1, homelessKey, homelessHash);
+        }
+        size++;
+        return true;
+    }
+
+    private static int maxLoad(int slots) {
+        return slots - (slots >>> 3);
+    }
+
+    /**
+     * Кладёт ключ в свободную ячейку одной из его корзин, иначе вытесняет случайных соседей, иначе - в stash.
+     *
+     * @return false if the stash is full; then the key left without a slot (not necessarily this one)
+     * is in homelessKey
+     */
+    private boolean place(Object key, int h) {
+        int b1 = bucket1(h);
+        int b2 = bucket2(h, b1);
+        if (tryPut(b1, key, h) || tryPut(b2, key, h)) {
+            return true;
+        }
+        int b = (nextRandom() & 1) == 0 ? b1 : b2;
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int slot = b * SLOTS + (nextRandom() & (SLOTS - 1));
+            Object victim = keys[slot];
+            int victimHash = hashes[slot];
+            keys[slot] = key;
+            hashes[slot] = h;
+            key = victim;
+            h = victimHash;
+            //вытесненный ключ переезжает в свою другую корзину
+            int v1 = bucket1(h);
+            b = b == v1 ? bucket2(h, v1) : v1;
+            if (tryPut(b, key, h)) {
+                return true;
+            }
+        }
+        if (stashSize < stash.length) {
+            stash[stashSize] = key;
+            stashHashes[stashSize] = h;
+            stashSize++;
+            return true;
+        }
+        homelessKey = key;
+        homelessHash = h;
+        return false;
+    }
+
+    private boolean tryPut(int bucket, Object key, int h) {
+        int start = bucket * SLOTS;
+        for (int i = start; i < start + SLOTS; i++) {
+            if (keys[i] == null) {
+                keys[i] = key;
+                hashes[i] = h;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Перекладывает все ключи (и extraKey, если он не null) в таблицу из buckets корзин с новыми хеш-функциями.
+     * Если и так не вышло, при загрузке больше 1/4 таблица удваивается; при меньшей загрузке мешают одинаковые
+     * hashCode(), которые никакие хеш-функции не разведут, и тогда вдвое растёт stash.
+     */
+    private void rebuild(int buckets, Object extraKey, int extraHash) {
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldStash = Arrays.copyOf(stash, stashSize);
+        int[] oldStashHashes = Arrays.copyOf(stashHashes, stashSize);
+        while (!tryRebuild(buckets, oldKeys, oldHashes, oldStash, oldStashHashes, extraKey, extraHash)) {
+            if ((long) (size + 1) * 4 > (long) buckets * SLOTS && buckets < MAXIMUM_BUCKETS) {
+                buckets <<= 1;
+            } else {
+                stash = new Object[stash.length << 1];
+                stashHashes = new int[stashHashes.length << 1];
+            }
+        }
+        homelessKey = null;
+    }
+
+    private boolean tryRebuild(int buckets, Object[] oldKeys, int[] oldHashes, Object[] oldStash,
+                               int[] oldStashHashes, Object extraKey, int extraHash) {
+        init(buckets);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null && !place(oldKeys[i], oldHashes[i])) {
+                return false;
+            }
+        }
+        for (int i = 0; i < oldStash.length; i++) {
+            if (!place(oldStash[i], oldStashHashes[i])) {
+                return false;
+            }
+        }
+        return extraKey == null || place(extraKey, extraHash);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = value.hashCode();
+        int b1 = bucket1(h);
+        int idx = indexIn(b1, value, h);
+        if (idx < 0) {
+            idx = indexIn(bucket2(h, b1), value, h);
+        }
+        if (idx >= 0) {
+            keys[idx] = null;
+            size--;
+            drainStash();
+            return true;
+        }
+        idx = stashSize > 0 ? stashIndex(value, h) : -1;
+        if (idx < 0) {
+            return false;
+        }
+        stashSize--;
+        stash[idx] = stash[stashSize];
+        stashHashes[idx] = stashHashes[stashSize];
+        stash[stashSize] = null;
+        size--;
+        return true;
+    }
+
+    /**
+     * После удаления в корзинах могло освободиться место для ключей из stash - без вытеснений переносим их туда
+     */
+    private void drainStash() {
+        for (int i = stashSize - 1; i >= 0; i--) {
+            int h = stashHashes[i];
+            int b1 = bucket1(h);
+            if (tryPut(b1, stash[i], h) || tryPut(bucket2(h, b1), stash[i], h)) {
+                stashSize--;
+                stash[i] = stash[stashSize];
+                stashHashes[i] = stashHashes[stashSize];
+                stash[stashSize] = null;
+            }
+        }
+    }
+
+    /**
+     * Таблица расширяется один раз под весь пакет, а не удваивается по ходу вставки.
+     */
+    @Override
+    public int addAll(Collection<? extends E> values) {
+        int buckets = mask + 1;
+        while ((long) size + values.size() >= maxLoad(buckets * SLOTS) && buckets < MAXIMUM_BUCKETS) {
+            buckets <<= 1;
+        }
+        if (buckets > mask + 1) {
+            rebuild(buckets, null, 0);
+        }
+        return ISet.super.addAll(values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(Object key) {
+        return (E) key;
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+}
@@ -0,0 +1,18 @@
+package ru.mail.polis;
+
+public interface IOrderStatisticSet<E extends Comparable<E>> extends ISortedSet<E> {
+
+    /**
+     * @param k zero-based index in sorting ordering
+     * @return the k-th smallest element of this set
+     * @throws IndexOutOfBoundsException if k is negative or not less than size()
+     */
+    E select(int k);
+
+    /**
+     * @param value the value to match
+     * @return the number of elements in this set strictly less than the given value
+     * @throws NullPointerException if the specified element is null
+     */
+    int rank(E value);
+}
@@ -1,5 +1,8 @@
 package ru.mail.polis;
 
+import java.util.BitSet;
+import java.util.Collection;
+
 public interface ISet<E extends Comparable<E>> {
 
     /**
@@ -36,4 +39,51 @@ public interface ISet<E extends Comparable<E>> {
      * @throws NullPointerException if the specified element is null
      */
     boolean remove(E value);
+
+    /**
+     * @param values elements to be added to this set
+     * @return the number of elements that were not already in this set
+     * @throws NullPointerException if any of the elements is null
+     */
+    default int addAll(Collection<? extends E> values) {
+        int added = 0;
+        for (E value : values) {
+            if (add(value)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @param values elements to be removed from this set, if present
+     * @return the number of elements that were removed
+     * @throws NullPointerException if any of the elements is null
+     */
+    default int removeAll(Collection<? extends E> values) {
+        int removed = 0;
+        for (E value : values) {
+            if (remove(value)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @param values elements whose presence in this set is to be tested
+     * @return a bit set where bit i is set if the i-th element of values (in iteration order) is in this set
+     * @throws NullPointerException if any of the elements is null
+     */
+    default BitSet containsAll(Collection<? extends E> values) {
+        BitSet result = new BitSet(values.size());
+        int i = 0;
+        for (E value : values) {
+            if (contains(value)) {
+                result.set(i);
+            }
+            i++;
+        }
+        return result;
+    }
 }
@@ -1,8 +1,13 @@
 package ru.mail.polis;
 
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
+public interface ISortedSet<E extends Comparable<E>> extends ISet<E>, Iterable<E> {
 
     /**
      * @return the first (lowest) element currently in this set
@@ -16,8 +21,111 @@ public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
      */
     E last();
 
+    /**
+     * @param value the value to match
+     * @return the greatest element in this set less than or equal to the given value, or null if there is none
+     * @throws NullPointerException if the specified element is null
+     */
+    E floor(E value);
+
+    /**
+     * @param value the value to match
+     * @return the least element in this set greater than or equal to the given value, or null if there is none
+     * @throws NullPointerException if the specified element is null
+     */
+    E ceiling(E value);
+
+    /**
+     * @param value the value to match
+     * @return the least element in this set strictly greater than the given value, or null if there is none
+     * @throws NullPointerException if the specified element is null
+     */
+    E higher(E value);
+
+    /**
+     * @param value the value to match
+     * @return the greatest element in this set strictly less than the given value, or null if there is none
+     * @throws NullPointerException if the specified element is null
+     */
+    E lower(E value);
+
+    /**
+     * @param fromElement low endpoint (inclusive)
+     * @param toElement high endpoint (exclusive)
+     * @return lazy view of the elements in [fromElement, toElement), backed by this set
+     * @throws NullPointerException if a bound is null
+     * @throws IllegalArgumentException if fromElement is greater than toElement
+     */
+    default ISortedSet<E> subSet(E fromElement, E toElement) {
+        if (fromElement == null || toElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        return new SubSet<>(this, fromElement, toElement);
+    }
+
+    /**
+     * @param toElement high endpoint (exclusive)
+     * @return lazy view of the elements strictly less than toElement, backed by this set
+     * @throws NullPointerException if the bound is null
+     */
+    default ISortedSet<E> headSet(E toElement) {
+        if (toElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        return new SubSet<>(this, null, toElement);
+    }
+
+    /**
+     * @param fromElement low endpoint (inclusive)
+     * @return lazy view of the elements greater than or equal to fromElement, backed by this set
+     * @throws NullPointerException if the bound is null
+     */
+    default ISortedSet<E> tailSet(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        return new SubSet<>(this, fromElement, null);
+    }
+
+    /**
+     * @return the comparator used to order the elements, or null if it uses natural ordering
+     */
+    Comparator<? super E> comparator();
+
     /**
      * @return list of element in sorting ordering
      */
     List<E> inorderTraverse();
+
+    /**
+     * @return lazy iterator over the elements in sorting ordering, the set is not copied
+     */
+    @Override
+    Iterator<E> iterator();
+
+    /**
+     * @param fromElement low endpoint (inclusive)
+     * @return lazy iterator over the elements greater than or equal to fromElement, in sorting ordering
+     */
+    Iterator<E> iterator(E fromElement);
+
+    /**
+     * @return lazy splittable spliterator over the elements in sorting ordering
+     */
+    @Override
+    Spliterator<E> spliterator();
+
+    /**
+     * @return sequential stream over the elements in sorting ordering
+     */
+    default Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return parallel stream over the elements in sorting ordering
+     */
+    default Stream<E> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 }
@@ -0,0 +1,42 @@
+package ru.mail.polis;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Множество, которое по запросу собирает метрики своей работы: длины проб и цепочек, повороты, перехеширования, глубину.
+ * По умолчанию сбор выключен, и на горячем пути от него остаётся только проверка поля на null.
+ */
+public interface Instrumented {
+
+    /**
+     * Включает сбор метрик, счётчики начинаются с нуля (повторный вызов их сбрасывает)
+     */
+    void enableMetrics();
+
+    void disableMetrics();
+
+    /**
+     * Снимок накопленных счётчиков. Гистограммы цепочек и глубина считаются обходом структуры за O(n),
+     * поэтому у непотокобезопасных множеств звать его стоит из потока-владельца.
+     *
+     * @return the metrics collected since {@link #enableMetrics()}, or null if metrics are disabled
+     */
+    SetMetrics metrics();
+
+    /**
+     * Публикует метрики в платформенный MBeanServer как ru.mail.polis:type=SetMetrics,name=name.
+     * Каждое чтение атрибута берёт свежий {@link #metrics()}; чтение идёт без синхронизации с владельцем,
+     * так что у непотокобезопасных множеств значения приблизительные.
+     *
+     * @return the name the bean is registered under
+     * @throws JMException if the name is malformed or already registered
+     */
+    default ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("ru.mail.polis:type=SetMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsView(this), objectName);
+        return objectName;
+    }
+}
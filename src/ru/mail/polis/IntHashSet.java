@@ -0,0 +1,136 @@
+package ru.mail.polis;
+
+/**
+ * Множество примитивных int на плоском массиве: открытая адресация с линейным пробированием.
+ * Пустая ячейка обозначается значением 0, поэтому сам 0 хранится отдельным флагом.
+ * Удаление - сдвигом следующих элементов кластера назад, без надгробий.
+ * Контракт методов такой же, как у {@link ISet}, но без упаковки в Integer.
+ */
+public class IntHashSet {
+
+    private static final int EMPTY = 0;
+
+    private final int INITIAL_CAPACITY = 8;
+
+    private int[] table;
+    private int mask;
+    private boolean hasZero;
+    private int size;
+
+    public IntHashSet() {
+        this.table = new int[INITIAL_CAPACITY];
+        this.mask = INITIAL_CAPACITY - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        if (value == EMPTY) {
+            return hasZero;
+        }
+        int idx = hash(value) & mask;
+        int curr;
+        while ((curr = table[idx]) != EMPTY) {
+            if (curr == value) {
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean add(int value) {
+        if (value == EMPTY) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int idx = hash(value) & mask;
+        int curr;
+        while ((curr = table[idx]) != EMPTY) {
+            if (curr == value) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        table[idx] = value;
+        size++;
+        if (size * 2 >= table.length) {
+            resize(table.length << 1);
+        }
+        return true;
+    }
+
+    public boolean remove(int value) {
+        if (value == EMPTY) {
+            if (!hasZero) {
+                return false;
+            }
+            hasZero = false;
+            size--;
+            return true;
+        }
+        int idx = hash(value) & mask;
+        int curr;
+        while ((curr = table[idx]) != EMPTY) {
+            if (curr == value) {
+                shiftBack(idx);
+                size--;
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Закрывает дыру в ячейке {@code gap}, подтягивая элементы кластера, чей путь пробирования через неё проходит.
+     */
+    private void shiftBack(int gap) {
+        int idx = gap;
+        while (true) {
+            idx = (idx + 1) & mask;
+            int curr = table[idx];
+            if (curr == EMPTY) {
+                break;
+            }
+            int home = hash(curr) & mask;
+            //элемент можно сдвинуть, если его "домашняя" ячейка не лежит в (gap, idx]
+            if (((idx - home) & mask) >= ((idx - gap) & mask)) {
+                table[gap] = curr;
+                gap = idx;
+            }
+        }
+        table[gap] = EMPTY;
+    }
+
+    private void resize(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int value : old) {
+            if (value == EMPTY) {
+                continue;
+            }
+            int idx = hash(value) & mask;
+            while (table[idx] != EMPTY) {
+                idx = (idx + 1) & mask;
+            }
+            table[idx] = value;
+        }
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,252 @@
+package ru.mail.polis;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * АВЛ-дерево примитивных long: ключ хранится в узле без упаковки, сравнение - обычное сравнение чисел.
+ * Балансировка та же, что в {@link AVLTree}.
+ */
+public class LongAVLTree implements LongSortedSet {
+
+    private static final class Node {
+        private final long key;
+        private Node left;
+        private Node right;
+        private int height = 1;
+
+        Node(long key) {
+            this.key = key;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void fixHeight(Node node) {
+        int l = height(node.left);
+        int r = height(node.right);
+        node.height = (l > r ? l : r) + 1;
+    }
+
+    private static int bFactor(Node node) {
+        return height(node.right) - height(node.left);
+    }
+
+    private static Node rotateRight(Node node) {
+        Node q = node.left;
+        node.left = q.right;
+        q.right = node;
+        fixHeight(node);
+        fixHeight(q);
+        return q;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node p = node.right;
+        node.right = p.left;
+        p.left = node;
+        fixHeight(node);
+        fixHeight(p);
+        return p;
+    }
+
+    private static Node balance(Node node) {
+        fixHeight(node);
+        if (bFactor(node) == 2) {
+            if (bFactor(node.right) < 0) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        if (bFactor(node) == -2) {
+            if (bFactor(node.left) > 0) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        Node curr = root;
+        while (curr != null) {
+            if (value < curr.key) {
+                curr = curr.left;
+            } else if (value > curr.key) {
+                curr = curr.right;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean booleanAdd;
+
+    @Override
+    public boolean add(long value) {
+        booleanAdd = false;
+        root = add(root, value);
+        if (booleanAdd) {
+            size++;
+        }
+        return booleanAdd;
+    }
+
+    private Node add(Node node, long value) {
+        if (node == null) {
+            booleanAdd = true;
+            return new Node(value);
+        }
+        if (value < node.key) {
+            node.left = add(node.left, value);
+        } else if (value > node.key) {
+            node.right = add(node.right, value);
+        } else {
+            return node;
+        }
+        return balance(node);
+    }
+
+    private boolean booleanRemove;
+
+    @Override
+    public boolean remove(long value) {
+        booleanRemove = false;
+        root = remove(root, value);
+        if (booleanRemove) {
+            size--;
+        }
+        return booleanRemove;
+    }
+
+    private Node remove(Node node, long value) {
+        if (node == null) {
+            return null;
+        }
+        if (value < node.key) {
+            node.left = remove(node.left, value);
+        } else if (value > node.key) {
+            node.right = remove(node.right, value);
+        } else {
+            booleanRemove = true;
+            if (node.left == null) {
+                return node.right;
+            } else if (node.right == null) {
+                return node.left;
+            }
+            Node removed = node;
+            node = min(removed.right);
+            node.right = removeMin(removed.right);
+            node.left = removed.left;
+        }
+        return balance(node);
+    }
+
+    private static Node min(Node node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    @Override
+    public long first() {
+        if (root == null) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return min(root).key;
+    }
+
+    @Override
+    public long last() {
+        if (root == null) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        Node curr = root;
+        while (curr.right != null) {
+            curr = curr.right;
+        }
+        return curr.key;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new NodeIterator(Long.MIN_VALUE);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator(long fromElement) {
+        return new NodeIterator(fromElement);
+    }
+
+    @Override
+    public long[] toArray() {
+        long[] result = new long[size];
+        PrimitiveIterator.OfLong it = iterator();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = it.nextLong();
+        }
+        return result;
+    }
+
+    /**
+     * Симметричный обход на явном стеке; высота АВЛ-дерева из 2^31 узлов меньше 64
+     */
+    private class NodeIterator implements PrimitiveIterator.OfLong {
+        private final Node[] stack = new Node[64];
+        private int depth;
+
+        NodeIterator(long from) {
+            for (Node curr = root; curr != null; ) {
+                if (curr.key >= from) {
+                    stack[depth++] = curr;
+                    curr = curr.left;
+                } else {
+                    curr = curr.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public long nextLong() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack[--depth];
+            for (Node curr = node.right; curr != null; curr = curr.left) {
+                stack[depth++] = curr;
+            }
+            return node.key;
+        }
+    }
+}
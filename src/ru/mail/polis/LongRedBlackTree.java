@@ -0,0 +1,373 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Красно-чёрное дерево примитивных long в параллельных массивах, как {@link CompactRedBlackTree},
+ * только ключи лежат прямо в long[]: ни упаковки, ни объектов на узел.
+ * Ячейка 0 - общий чёрный лист NIL, освобождённые ячейки связаны в список через left.
+ */
+public class LongRedBlackTree implements LongSortedSet {
+
+    private static final int NIL = 0;
+
+    private final int INITIAL_CAPACITY = 16;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] left = new int[INITIAL_CAPACITY];
+    private int[] right = new int[INITIAL_CAPACITY];
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private final BitSet red = new BitSet();
+    private int root = NIL;
+    private int size;
+    private int allocated;
+    private int freeHead = NIL;
+
+    private int allocate(long key) {
+        int node = freeHead;
+        if (node != NIL) {
+            freeHead = left[node];
+        } else {
+            node = ++allocated;
+            if (node == keys.length) {
+                int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+            }
+        }
+        keys[node] = key;
+        left[node] = NIL;
+        right[node] = NIL;
+        parent[node] = NIL;
+        return node;
+    }
+
+    private void free(int node) {
+        red.clear(node);
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    private int find(long value) {
+        int curr = root;
+        while (curr != NIL) {
+            long key = keys[curr];
+            if (value < key) {
+                curr = left[curr];
+            } else if (value > key) {
+                curr = right[curr];
+            } else {
+                return curr;
+            }
+        }
+        return NIL;
+    }
+
+    private int minimum(int node) {
+        while (left[node] != NIL) {
+            node = left[node];
+        }
+        return node;
+    }
+
+    private int successor(int node) {
+        if (right[node] != NIL) {
+            return minimum(right[node]);
+        }
+        int p = parent[node];
+        while (p != NIL && node == right[p]) {
+            node = p;
+            p = parent[p];
+        }
+        return p;
+    }
+
+    private void leftRotate(int x) {
+        int y = right[x];
+        right[x] = left[y];
+        if (left[y] != NIL) {
+            parent[left[y]] = x;
+        }
+        replaceChild(x, y);
+        left[y] = x;
+        parent[x] = y;
+    }
+
+    private void rightRotate(int x) {
+        int y = left[x];
+        left[x] = right[y];
+        if (right[y] != NIL) {
+            parent[right[y]] = x;
+        }
+        replaceChild(x, y);
+        right[y] = x;
+        parent[x] = y;
+    }
+
+    private void replaceChild(int n, int k) {
+        int p = parent[n];
+        if (p == NIL) {
+            root = k;
+        } else if (n == left[p]) {
+            left[p] = k;
+        } else {
+            right[p] = k;
+        }
+        parent[k] = p;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        return find(value) != NIL;
+    }
+
+    @Override
+    public boolean add(long value) {
+        int p = NIL;
+        int curr = root;
+        boolean toLeft = false;
+        while (curr != NIL) {
+            long key = keys[curr];
+            if (value == key) {
+                return false;
+            }
+            p = curr;
+            toLeft = value < key;
+            curr = toLeft ? left[curr] : right[curr];
+        }
+        int node = allocate(value);
+        parent[node] = p;
+        if (p == NIL) {
+            root = node;
+        } else if (toLeft) {
+            left[p] = node;
+        } else {
+            right[p] = node;
+        }
+        red.set(node);
+        fixAdd(node);
+        size++;
+        return true;
+    }
+
+    private void fixAdd(int node) {
+        while (red.get(parent[node])) {
+            int p = parent[node];
+            int g = parent[p];
+            if (p == left[g]) {
+                int uncle = right[g];
+                if (red.get(uncle)) {
+                    red.clear(p);
+                    red.clear(uncle);
+                    red.set(g);
+                    node = g;
+                } else {
+                    if (node == right[p]) {
+                        node = p;
+                        leftRotate(node);
+                    }
+                    red.clear(parent[node]);
+                    red.set(parent[parent[node]]);
+                    rightRotate(parent[parent[node]]);
+                }
+            } else {
+                int uncle = left[g];
+                if (red.get(uncle)) {
+                    red.clear(p);
+                    red.clear(uncle);
+                    red.set(g);
+                    node = g;
+                } else {
+                    if (node == left[p]) {
+                        node = p;
+                        rightRotate(node);
+                    }
+                    red.clear(parent[node]);
+                    red.set(parent[parent[node]]);
+                    leftRotate(parent[parent[node]]);
+                }
+            }
+        }
+        red.clear(root);
+    }
+
+    @Override
+    public boolean remove(long value) {
+        int z = find(value);
+        if (z == NIL) {
+            return false;
+        }
+        int x;
+        boolean isFixNeeded = !red.get(z);
+        if (left[z] == NIL) {
+            x = right[z];
+            replaceChild(z, right[z]);
+        } else if (right[z] == NIL) {
+            x = left[z];
+            replaceChild(z, left[z]);
+        } else {
+            int y = minimum(right[z]);
+            isFixNeeded = !red.get(y);
+            x = right[y];
+            if (parent[y] == z) {
+                parent[x] = y;
+            } else {
+                replaceChild(y, right[y]);
+                right[y] = right[z];
+                parent[right[y]] = y;
+            }
+            replaceChild(z, y);
+            left[y] = left[z];
+            parent[left[y]] = y;
+            red.set(y, red.get(z));
+        }
+        if (isFixNeeded) {
+            fixRemove(x);
+        }
+        free(z);
+        size--;
+        return true;
+    }
+
+    private void fixRemove(int node) {
+        while (node != root && !red.get(node)) {
+            int p = parent[node];
+            if (node == left[p]) {
+                int w = right[p];
+                if (red.get(w)) {
+                    red.clear(w);
+                    red.set(p);
+                    leftRotate(p);
+                    w = right[p];
+                }
+                if (!red.get(left[w]) && !red.get(right[w])) {
+                    red.set(w);
+                    node = p;
+                    continue;
+                } else if (!red.get(right[w])) {
+                    red.clear(left[w]);
+                    red.set(w);
+                    rightRotate(w);
+                    w = right[p];
+                }
+                red.set(w, red.get(p));
+                red.clear(p);
+                red.clear(right[w]);
+                leftRotate(p);
+                node = root;
+            } else {
+                int w = left[p];
+                if (red.get(w)) {
+                    red.clear(w);
+                    red.set(p);
+                    rightRotate(p);
+                    w = left[p];
+                }
+                if (!red.get(right[w]) && !red.get(left[w])) {
+                    red.set(w);
+                    node = p;
+                    continue;
+                } else if (!red.get(left[w])) {
+                    red.clear(right[w]);
+                    red.set(w);
+                    leftRotate(w);
+                    w = left[p];
+                }
+                red.set(w, red.get(p));
+                red.clear(p);
+                red.clear(left[w]);
+                rightRotate(p);
+                node = root;
+            }
+        }
+        red.clear(node);
+    }
+
+    @Override
+    public long first() {
+        if (root == NIL) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return keys[minimum(root)];
+    }
+
+    @Override
+    public long last() {
+        if (root == NIL) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        int curr = root;
+        while (right[curr] != NIL) {
+            curr = right[curr];
+        }
+        return keys[curr];
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new NodeIterator(root == NIL ? NIL : minimum(root));
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator(long fromElement) {
+        int best = NIL;
+        int curr = root;
+        while (curr != NIL) {
+            if (keys[curr] >= fromElement) {
+                best = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return new NodeIterator(best);
+    }
+
+    @Override
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        for (int node = root == NIL ? NIL : minimum(root); node != NIL; node = successor(node)) {
+            result[i++] = keys[node];
+        }
+        return result;
+    }
+
+    private class NodeIterator implements PrimitiveIterator.OfLong {
+        private int next;
+
+        NodeIterator(int first) {
+            this.next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        @Override
+        public long nextLong() {
+            if (next == NIL) {
+                throw new NoSuchElementException();
+            }
+            long result = keys[next];
+            next = successor(next);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ru.mail.polis;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * Упорядоченное множество примитивных long: контракт как у {@link ISortedSet}, но без упаковки в Long
+ * и без компаратора - ключи сравниваются как числа.
+ */
+public interface LongSortedSet {
+
+    int size();
+
+    boolean isEmpty();
+
+    boolean contains(long value);
+
+    /**
+     * @return true if the set did not already contain the value
+     */
+    boolean add(long value);
+
+    /**
+     * @return true if the set contained the value
+     */
+    boolean remove(long value);
+
+    /**
+     * @return the lowest element
+     * @throws java.util.NoSuchElementException if the set is empty
+     */
+    long first();
+
+    /**
+     * @return the highest element
+     * @throws java.util.NoSuchElementException if the set is empty
+     */
+    long last();
+
+    /**
+     * @return an iterator over the elements in ascending order
+     */
+    PrimitiveIterator.OfLong iterator();
+
+    /**
+     * @return an iterator over the elements greater than or equal to fromElement, in ascending order
+     */
+    PrimitiveIterator.OfLong iterator(long fromElement);
+
+    /**
+     * @return all elements in ascending order
+     */
+    long[] toArray();
+}
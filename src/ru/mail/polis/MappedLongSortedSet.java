@@ -0,0 +1,477 @@
+package ru.mail.polis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * АВЛ-дерево из long, целиком лежащее в файле, отображённом в память.
+ * Узлы адресуются номерами, а не ссылками, поэтому открытие существующего файла - это только его отображение:
+ * ничего не читается и не десериализуется, страницы подгружаются по мере обращения.
+ * <p>
+ * Формат файла: заголовок {@link #HEADER_SIZE} байт (магическое число, корень, размер, число выделенных узлов,
+ * голова списка свободных узлов), затем узлы по {@link #NODE_SIZE} байт: key (long), left, right, height (int).
+ * Номер 0 означает отсутствие узла, удалённые узлы переиспользуются через список свободных (по полю left).
+ * <p>
+ * Изменения попадают в файл по мере сброса страниц операционной системой, {@link #force()} сбрасывает их явно.
+ * Запись не атомарна: при падении посреди операции файл может остаться несогласованным.
+ * Если дерево создавалось с comparator, открывать файл нужно с тем же comparator.
+ */
+public class MappedLongSortedSet implements ISortedSet<Long>, Closeable {
+
+    private static final int MAGIC = 0x4D4C5353;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int ROOT_OFFSET = 4;
+    private static final int SIZE_OFFSET = 8;
+    private static final int ALLOCATED_OFFSET = 12;
+    private static final int FREE_OFFSET = 16;
+    private static final int HEADER_SIZE = 32;
+
+    private static final int KEY_OFFSET = 0;
+    private static final int LEFT_OFFSET = 8;
+    private static final int RIGHT_OFFSET = 12;
+    private static final int HEIGHT_OFFSET = 16;
+    private static final int NODE_SIZE = 20;
+
+    private static final int NIL = 0;
+    /**
+     * Одно отображение FileChannel.map ограничено 2 ГБ
+     */
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / NODE_SIZE;
+
+    private final int INITIAL_CAPACITY = 1024;
+
+    private final FileChannel channel;
+    private final Comparator<Long> comparator;
+    private MappedByteBuffer buffer;
+    private int capacity;
+
+    public MappedLongSortedSet(Path file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Открывает дерево из file или создаёт новое, если файл пуст или не существует.
+     *
+     * @throws IOException if the file can not be mapped or is not a set file
+     */
+    public MappedLongSortedSet(Path file, Comparator<Long> comparator) throws IOException {
+        this.comparator = comparator;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long length = channel.size();
+            if (length == 0) {
+                map(INITIAL_CAPACITY);
+                buffer.putInt(MAGIC_OFFSET, MAGIC);
+                setRoot(NIL);
+                buffer.putInt(SIZE_OFFSET, 0);
+                buffer.putInt(ALLOCATED_OFFSET, 0);
+                buffer.putInt(FREE_OFFSET, NIL);
+            } else {
+                if (length < HEADER_SIZE || length > HEADER_SIZE + (long) MAX_CAPACITY * NODE_SIZE) {
+                    throw new IOException("not a set file: " + file);
+                }
+                map((int) ((length - HEADER_SIZE) / NODE_SIZE));
+                if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+                    throw new IOException("not a set file: " + file);
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void map(int capacity) throws IOException {
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * NODE_SIZE);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Сбрасывает изменённые страницы на диск
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int compare(long v1, long v2) {
+        return comparator == null ? Long.compare(v1, v2) : comparator.compare(v1, v2);
+    }
+
+    private static int offset(int node) {
+        return HEADER_SIZE + (node - 1) * NODE_SIZE;
+    }
+
+    private long key(int node) {
+        return buffer.getLong(offset(node) + KEY_OFFSET);
+    }
+
+    private int left(int node) {
+        return buffer.getInt(offset(node) + LEFT_OFFSET);
+    }
+
+    private int right(int node) {
+        return buffer.getInt(offset(node) + RIGHT_OFFSET);
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : buffer.getInt(offset(node) + HEIGHT_OFFSET);
+    }
+
+    private void setLeft(int node, int left) {
+        buffer.putInt(offset(node) + LEFT_OFFSET, left);
+    }
+
+    private void setRight(int node, int right) {
+        buffer.putInt(offset(node) + RIGHT_OFFSET, right);
+    }
+
+    private int root() {
+        return buffer.getInt(ROOT_OFFSET);
+    }
+
+    private void setRoot(int root) {
+        buffer.putInt(ROOT_OFFSET, root);
+    }
+
+    /**
+     * Берёт узел из списка свободных или следующий невыделенный, при необходимости удваивая файл
+     */
+    private int allocate(long key) {
+        int node = buffer.getInt(FREE_OFFSET);
+        if (node != NIL) {
+            buffer.putInt(FREE_OFFSET, left(node));
+        } else {
+            int allocated = buffer.getInt(ALLOCATED_OFFSET);
+            if (allocated == capacity) {
+                if (capacity == MAX_CAPACITY) {
+                    throw new IllegalStateException("set is full");
+                }
+                try {
+                    map((int) Math.min((long) capacity * 2, MAX_CAPACITY));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            node = allocated + 1;
+            buffer.putInt(ALLOCATED_OFFSET, node);
+        }
+        int offset = offset(node);
+        buffer.putLong(offset + KEY_OFFSET, key);
+        buffer.putInt(offset + LEFT_OFFSET, NIL);
+        buffer.putInt(offset + RIGHT_OFFSET, NIL);
+        buffer.putInt(offset + HEIGHT_OFFSET, 1);
+        return node;
+    }
+
+    private void free(int node) {
+        setLeft(node, buffer.getInt(FREE_OFFSET));
+        buffer.putInt(FREE_OFFSET, node);
+    }
+
+    private void fixHeight(int node) {
+        int l = height(left(node));
+        int r = height(right(node));
+        buffer.putInt(offset(node) + HEIGHT_OFFSET, (l > r ? l : r) + 1);
+    }
+
+    private int bFactor(int node) {
+        return height(right(node)) - height(left(node));
+    }
+
+    private int rotateRight(int node) {
+        int q = left(node);
+        setLeft(node, right(q));
+        setRight(q, node);
+        fixHeight(node);
+        fixHeight(q);
+        return q;
+    }
+
+    private int rotateLeft(int node) {
+        int p = right(node);
+        setRight(node, left(p));
+        setLeft(p, node);
+        fixHeight(node);
+        fixHeight(p);
+        return p;
+    }
+
+    private int balance(int node) {
+        fixHeight(node);
+        if (bFactor(node) == 2) {
+            if (bFactor(right(node)) < 0) {
+                setRight(node, rotateRight(right(node)));
+            }
+            return rotateLeft(node);
+        }
+        if (bFactor(node) == -2) {
+            if (bFactor(left(node)) > 0) {
+                setLeft(node, rotateLeft(left(node)));
+            }
+            return rotateRight(node);
+        }
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return buffer.getInt(SIZE_OFFSET);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(Long value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        long key = value;
+        int curr = root();
+        while (curr != NIL) {
+            int cmp = compare(key, key(curr));
+            if (cmp == 0) {
+                return true;
+            }
+            curr = cmp < 0 ? left(curr) : right(curr);
+        }
+        return false;
+    }
+
+    private boolean booleanAdd;
+
+    @Override
+    public boolean add(Long value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        booleanAdd = false;
+        setRoot(add(root(), value));
+        if (booleanAdd) {
+            buffer.putInt(SIZE_OFFSET, size() + 1);
+        }
+        return booleanAdd;
+    }
+
+    private int add(int node, long key) {
+        if (node == NIL) {
+            booleanAdd = true;
+            return allocate(key);
+        }
+        int cmp = compare(key, key(node));
+        if (cmp < 0) {
+            setLeft(node, add(left(node), key));
+        } else if (cmp > 0) {
+            setRight(node, add(right(node), key));
+        } else {
+            return node;
+        }
+        return balance(node);
+    }
+
+    private boolean booleanRemove;
+
+    @Override
+    public boolean remove(Long value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        booleanRemove = false;
+        setRoot(remove(root(), value));
+        if (booleanRemove) {
+            buffer.putInt(SIZE_OFFSET, size() - 1);
+        }
+        return booleanRemove;
+    }
+
+    private int remove(int node, long key) {
+        if (node == NIL) {
+            return NIL;
+        }
+        int cmp = compare(key, key(node));
+        if (cmp < 0) {
+            setLeft(node, remove(left(node), key));
+        } else if (cmp > 0) {
+            setRight(node, remove(right(node), key));
+        } else {
+            booleanRemove = true;
+            int left = left(node);
+            int right = right(node);
+            free(node);
+            if (left == NIL) {
+                return right;
+            } else if (right == NIL) {
+                return left;
+            }
+            node = min(right);
+            setRight(node, removeMin(right));
+            setLeft(node, left);
+        }
+        return balance(node);
+    }
+
+    private int min(int node) {
+        while (left(node) != NIL) {
+            node = left(node);
+        }
+        return node;
+    }
+
+    private int removeMin(int node) {
+        if (left(node) == NIL) {
+            return right(node);
+        }
+        setLeft(node, removeMin(left(node)));
+        return balance(node);
+    }
+
+    @Override
+    public Long first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return key(min(root()));
+    }
+
+    @Override
+    public Long last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        int curr = root();
+        while (right(curr) != NIL) {
+            curr = right(curr);
+        }
+        return key(curr);
+    }
+
+    @Override
+    public Long floor(Long value) {
+        return nearest(value, false, true);
+    }
+
+    @Override
+    public Long ceiling(Long value) {
+        return nearest(value, true, true);
+    }
+
+    @Override
+    public Long higher(Long value) {
+        return nearest(value, true, false);
+    }
+
+    @Override
+    public Long lower(Long value) {
+        return nearest(value, false, false);
+    }
+
+    private Long nearest(Long value, boolean greater, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        long key = value;
+        int best = NIL;
+        int curr = root();
+        while (curr != NIL) {
+            int cmp = compare(key(curr), key);
+            if (cmp == 0 && inclusive) {
+                return key(curr);
+            }
+            if (greater ? cmp > 0 : cmp < 0) {
+                best = curr;
+                curr = greater ? left(curr) : right(curr);
+            } else {
+                curr = greater ? right(curr) : left(curr);
+            }
+        }
+        return best == NIL ? null : key(best);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public List<Long> inorderTraverse() {
+        List<Long> result = new ArrayList<>(size());
+        forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new NodeIterator(null);
+    }
+
+    @Override
+    public Iterator<Long> iterator(Long fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        return new NodeIterator(fromElement);
+    }
+
+    @Override
+    public Spliterator<Long> spliterator() {
+        return SortedIteratorSpliterator.of(iterator(), size(), 0, comparator);
+    }
+
+    /**
+     * Симметричный обход на стеке номеров узлов; высота АВЛ-дерева из 2^31 узлов меньше 64
+     */
+    private class NodeIterator implements Iterator<Long> {
+        private final int[] stack = new int[64];
+        private int depth;
+
+        NodeIterator(Long from) {
+            int curr = root();
+            while (curr != NIL) {
+                if (from == null || compare(key(curr), from) >= 0) {
+                    stack[depth++] = curr;
+                    curr = left(curr);
+                } else {
+                    curr = right(curr);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public Long next() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            int node = stack[--depth];
+            for (int curr = right(node); curr != NIL; curr = left(curr)) {
+                stack[depth++] = curr;
+            }
+            return key(node);
+        }
+    }
+}
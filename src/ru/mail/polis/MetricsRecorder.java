@@ -0,0 +1,27 @@
+package ru.mail.polis;
+
+/**
+ * Изменяемые счётчики за {@link SetMetrics}. Живёт в поле множества, пока метрики включены;
+ * множество обновляет поля напрямую под проверкой на null.
+ */
+final class MetricsRecorder {
+
+    final long[] probes = new long[SetMetrics.BUCKETS];
+    long rotations;
+    long recolors;
+    long resizes;
+    long resizeNanos;
+
+    void probes(int count) {
+        probes[SetMetrics.bucket(count)]++;
+    }
+
+    SetMetrics snapshot() {
+        return snapshot(new long[SetMetrics.BUCKETS], 0, 0);
+    }
+
+    SetMetrics snapshot(long[] chainLengthHistogram, int maxDepth, double averageDepth) {
+        return new SetMetrics(probes.clone(), chainLengthHistogram, rotations, recolors,
+                resizes, resizeNanos, maxDepth, averageDepth);
+    }
+}
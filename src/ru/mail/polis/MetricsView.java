@@ -0,0 +1,58 @@
+package ru.mail.polis;
+
+/**
+ * JMX-представление {@link Instrumented}: каждый атрибут читается из свежего снимка
+ */
+final class MetricsView implements SetMetricsMXBean {
+
+    private final Instrumented set;
+
+    MetricsView(Instrumented set) {
+        this.set = set;
+    }
+
+    private SetMetrics snapshot() {
+        SetMetrics metrics = set.metrics();
+        return metrics == null ? SetMetrics.EMPTY : metrics;
+    }
+
+    @Override
+    public long[] getProbeHistogram() {
+        return snapshot().getProbeHistogram();
+    }
+
+    @Override
+    public long[] getChainLengthHistogram() {
+        return snapshot().getChainLengthHistogram();
+    }
+
+    @Override
+    public long getRotations() {
+        return snapshot().getRotations();
+    }
+
+    @Override
+    public long getRecolors() {
+        return snapshot().getRecolors();
+    }
+
+    @Override
+    public long getResizes() {
+        return snapshot().getResizes();
+    }
+
+    @Override
+    public long getResizeNanos() {
+        return snapshot().getResizeNanos();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return snapshot().getMaxDepth();
+    }
+
+    @Override
+    public double getAverageDepth() {
+        return snapshot().getAverageDepth();
+    }
+}
@@ -1,11 +1,30 @@
 package ru.mail.polis;
 
+import java.util.Collection;
 import java.util.Comparator;
 
-//TODO: write code here
-public class OpenHashTable<E extends Comparable<E>> implements ISet<E> {
+/**
+ * Хеш-таблица с открытой адресацией и двойным хешированием.
+ * Размер таблицы - степень двойки (изначально 8), перехеширование при load factor = 1/2.
+ * Удалённые ячейки помечаются надгробием (DELETED); когда надгробия вместе с элементами
+ * занимают половину таблицы, она перехешируется без увеличения размера.
+ */
+public class OpenHashTable<E extends Comparable<E>> implements ISet<E>, Instrumented {
+
+    private static final Object DELETED = new Object();
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final int INITIAL_CAPACITY = 8;
 
     private Comparator<E> comparator;
+    private Object[] table;
+    private int size;
+    private int deleted;
+    /**
+     * Счётчики метрик, null - сбор выключен
+     */
+    private MetricsRecorder metrics;
 
     public OpenHashTable() {
         this(null);
@@ -13,30 +32,186 @@ public class OpenHashTable<E extends Comparable<E>> implements ISet<E> {
 
     public OpenHashTable(Comparator<E> comparator) {
         this.comparator = comparator;
+        this.table = new Object[INITIAL_CAPACITY];
     }
 
     @Override
     public int size() {
-        return 0;
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-        return false;
+        return size == 0;
     }
 
     @Override
     public boolean contains(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return indexOf(value) >= 0;
     }
 
     @Override
     public boolean add(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int h = value.hashCode();
+        int mask = table.length - 1;
+        int idx = hash1(h, mask);
+        int step = hash2(h, mask);
+        int free = -1;
+        for (int i = 0; i < table.length; i++) {
+            Object curr = table[idx];
+            if (curr == null) {
+                if (free < 0) {
+                    free = idx;
+                }
+                recordProbes(i + 1);
+                break;
+            }
+            if (curr == DELETED) {
+                if (free < 0) {
+                    free = idx;
+                }
+            } else if (compare(value, elementAt(idx)) == 0) {
+                recordProbes(i + 1);
+                return false;
+            }
+            idx = (idx + step) & mask;
+        }
+        //load factor < 1/2, поэтому свободная ячейка всегда найдётся
+        if (table[free] == DELETED) {
+            deleted--;
+        }
+        table[free] = value;
+        size++;
+        if (size * 2 >= table.length) {
+            rehash(table.length << 1);
+        } else if ((size + deleted) * 2 >= table.length) {
+            //в основном надгробия - чистим их, не увеличивая таблицу
+            rehash(table.length);
+        }
+        return true;
     }
 
     @Override
     public boolean remove(E value) {
-        return false;
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int idx = indexOf(value);
+        if (idx < 0) {
+            return false;
+        }
+        table[idx] = DELETED;
+        size--;
+        deleted++;
+        return true;
+    }
+
+    /**
+     * Таблица расширяется один раз под весь пакет, а не удваивается по ходу вставки.
+     */
+    @Override
+    public int addAll(Collection<? extends E> values) {
+        int capacity = table.length;
+        while ((long) (size + values.size()) * 2 >= capacity && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        if (capacity > table.length) {
+            rehash(capacity);
+        }
+        return ISet.super.addAll(values);
+    }
+
+    private int indexOf(E value) {
+        int h = value.hashCode();
+        int mask = table.length - 1;
+        int idx = hash1(h, mask);
+        int step = hash2(h, mask);
+        for (int i = 0; i < table.length; i++) {
+            Object curr = table[idx];
+            if (curr == null) {
+                recordProbes(i + 1);
+                return -1;
+            }
+            if (curr != DELETED && compare(value, elementAt(idx)) == 0) {
+                recordProbes(i + 1);
+                return idx;
+            }
+            idx = (idx + step) & mask;
+        }
+        recordProbes(table.length);
+        return -1;
+    }
+
+    private void recordProbes(int probes) {
+        if (metrics != null) {
+            metrics.probes(probes);
+        }
+    }
+
+    @Override
+    public void enableMetrics() {
+        metrics = new MetricsRecorder();
+    }
+
+    @Override
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    @Override
+    public SetMetrics metrics() {
+        MetricsRecorder recorder = metrics;
+        return recorder == null ? null : recorder.snapshot();
+    }
+
+    private int hash1(int h, int mask) {
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Шаг всегда нечётный, поэтому при размере таблицы 2^k последовательность проб обходит все ячейки.
+     */
+    private int hash2(int h, int mask) {
+        return ((h * 31 ^ (h >>> 11)) << 1 | 1) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long start = metrics != null ? System.nanoTime() : 0;
+        Object[] old = table;
+        table = new Object[capacity];
+        deleted = 0;
+        int mask = capacity - 1;
+        for (Object o : old) {
+            if (o == null || o == DELETED) {
+                continue;
+            }
+            int h = o.hashCode();
+            int idx = hash1(h, mask);
+            int step = hash2(h, mask);
+            //все элементы уникальны - сравнивать не нужно
+            while (table[idx] != null) {
+                idx = (idx + step) & mask;
+            }
+            table[idx] = o;
+        }
+        if (metrics != null) {
+            metrics.resizes++;
+            metrics.resizeNanos += System.nanoTime() - start;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int idx) {
+        return (E) table[idx];
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 }
@@ -1,11 +1,13 @@
 package ru.mail.polis;
 
+import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 import static ru.mail.polis.RedBlackTree.Color.BLACK;
 import static ru.mail.polis.RedBlackTree.Color.RED;
 
-public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
+public class RedBlackTree<E extends Comparable<E>> implements IOrderStatisticSet<E>, Instrumented {
 
     enum Color {RED, BLACK}
 
@@ -13,6 +15,31 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     private int size;
     private Node root = NIL;
     private Comparator<E> comparator;
+    private final TreeWalker<Node, E> walker = new TreeWalker<Node, E>(NIL) {
+        @Override
+        Node left(Node node) {
+            return node.left;
+        }
+
+        @Override
+        Node right(Node node) {
+            return node.right;
+        }
+
+        @Override
+        E key(Node node) {
+            return node.key;
+        }
+
+        @Override
+        Comparator<? super E> comparator() {
+            return comparator;
+        }
+    };
+    /**
+     * Счётчики метрик, null - сбор выключен
+     */
+    private MetricsRecorder metrics;
 
     public RedBlackTree() {
         this.comparator = null;
@@ -22,11 +49,613 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         this.comparator = comparator;
     }
 
+    /**
+     * Строит сбалансированное дерево из строго возрастающих элементов за O(n):
+     * все уровни чёрные, кроме нижнего неполного - он красный.
+     *
+     * @throws IllegalArgumentException if the elements are not strictly ascending
+     * @throws NullPointerException if an element is null
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(Collection<? extends E> sorted) {
+        return fromSorted(sorted, null);
+    }
+
+    /**
+     * Строит сбалансированное дерево из строго возрастающих (по comparator) элементов за O(n):
+     * все уровни чёрные, кроме нижнего неполного - он красный.
+     *
+     * @throws IllegalArgumentException if the elements are not strictly ascending
+     * @throws NullPointerException if an element is null
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(Collection<? extends E> sorted,
+                                                                       Comparator<E> comparator) {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        if (!tree.isStrictlySorted(sorted)) {
+            throw new IllegalArgumentException("elements are not strictly ascending");
+        }
+        tree.build(sorted);
+        return tree;
+    }
+
+    /**
+     * Если values строго возрастают и их не меньше, чем элементов в дереве, дерево пересобирается
+     * слиянием за O(n + m). Более короткие строго возрастающие values вставляются пальцем (см. {@link #climb}):
+     * каждый поиск начинается от узла предыдущего ключа, для близких ключей это O(log d) сравнений вместо O(log n).
+     * Размеры поддеревьев по-прежнему обновляются по пути до корня. Неупорядоченные values добавляются по одному.
+     *
+     * @return the number of elements that were not already in this set
+     * @throws NullPointerException if an element is null
+     */
+    @Override
+    public int addAll(Collection<? extends E> values) {
+        if (!values.isEmpty() && isStrictlySorted(values)) {
+            int before = size;
+            if (values.size() >= size) {
+                build(isEmpty() ? values : merge(values));
+            } else {
+                Node finger = NIL;
+                for (E value : values) {
+                    Node parent = NIL;
+                    int cmp = 0;
+                    Node curr = climb(finger, value);
+                    while (curr != NIL) {
+                        cmp = compare(value, curr.key);
+                        if (cmp == 0) {
+                            break;
+                        }
+                        parent = curr;
+                        curr = cmp < 0 ? curr.left : curr.right;
+                    }
+                    finger = curr != NIL ? curr : attach(parent, cmp, value);
+                }
+            }
+            return size - before;
+        }
+        int added = 0;
+        for (E value : values) {
+            if (add(value)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Если values строго возрастают и их не меньше, чем элементов в дереве, дерево пересобирается
+     * из разности за O(n + m). Более короткие строго возрастающие values удаляются пальцем, как в {@link #addAll}:
+     * пальцем служит ближайший пройденный узел с меньшим ключом - удаление узлы не пересоздаёт, и он остаётся в дереве.
+     * Неупорядоченные values удаляются по одному.
+     *
+     * @return the number of elements that were removed
+     * @throws NullPointerException if an element is null
+     */
+    @Override
+    public int removeAll(Collection<? extends E> values) {
+        if (!values.isEmpty() && !isEmpty() && isStrictlySorted(values)) {
+            int before = size;
+            if (values.size() >= size) {
+                build(withoutAll(values));
+            } else {
+                Node finger = NIL;
+                for (E value : values) {
+                    Node lower = NIL;
+                    Node curr = climb(finger, value);
+                    while (curr != NIL) {
+                        int cmp = compare(value, curr.key);
+                        if (cmp == 0) {
+                            removeNode(curr);
+                            break;
+                        }
+                        if (cmp > 0) {
+                            lower = curr;
+                        }
+                        curr = cmp < 0 ? curr.left : curr.right;
+                    }
+                    if (lower != NIL) {
+                        finger = lower;
+                    }
+                }
+            }
+            return before - size;
+        }
+        int removed = 0;
+        for (E value : values) {
+            if (remove(value)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Строго возрастающие values ищутся пальцем: путь от корня до места предыдущего поиска сохраняется,
+     * и следующий поиск поднимается лишь до первого предка, чей диапазон ключей ещё содержит значение.
+     * Для близких ключей это O(log d) вместо O(log n), где d - расстояние между ними в дереве.
+     *
+     * @return a bit set where bit i is set if the i-th element of values is in this set
+     * @throws NullPointerException if an element is null
+     */
+    @Override
+    public BitSet containsAll(Collection<? extends E> values) {
+        if (!isStrictlySorted(values)) {
+            return IOrderStatisticSet.super.containsAll(values);
+        }
+        BitSet result = new BitSet(values.size());
+        //путь и исключающие верхние границы поддеревьев на нём (null - без границы); нижние не нужны - ключи растут
+        Node[] path = newPath(2 * (33 - Integer.numberOfLeadingZeros(size)));
+        Object[] upper = new Object[path.length];
+        int depth = 0;
+        int i = 0;
+        for (E value : values) {
+            while (depth > 0 && upper[depth - 1] != null && compare(value, bound(upper[depth - 1])) >= 0) {
+                depth--;
+            }
+            Node curr = root;
+            E hi = null;
+            if (depth > 0) {
+                depth--;
+                curr = path[depth];
+                hi = bound(upper[depth]);
+            }
+            while (curr != NIL) {
+                path[depth] = curr;
+                upper[depth] = hi;
+                depth++;
+                int cmp = compare(value, curr.key);
+                if (cmp == 0) {
+                    result.set(i);
+                    break;
+                }
+                if (cmp < 0) {
+                    hi = curr.key;
+                    curr = curr.left;
+                } else {
+                    curr = curr.right;
+                }
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * Поиск пальцем для возрастающих ключей: finger - узел с ключом меньше value (NIL - начать от корня).
+     * Подъём по ссылкам на родителей идёт, пока поддерево не окажется левым ребёнком узла с ключом больше value:
+     * тогда все ключи между finger и value лежат в нём, и спуск начинается отсюда.
+     *
+     * @return the root of the subtree where the search for value starts
+     */
+    private Node climb(Node finger, E value) {
+        if (finger == NIL) {
+            return root;
+        }
+        Node node = finger;
+        while (node.parent != NIL && !(node == node.parent.left && compare(value, node.parent.key) < 0)) {
+            node = node.parent;
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node[] newPath(int length) {
+        return (Node[]) Array.newInstance(Node.class, length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E bound(Object bound) {
+        return (E) bound;
+    }
+
+    /**
+     * @return elements of this tree that are not in sorted, in ascending order
+     */
+    private List<E> withoutAll(Collection<? extends E> sorted) {
+        List<E> result = new ArrayList<>(size);
+        Iterator<? extends E> it = sorted.iterator();
+        E other = it.next();
+        for (E value : this) {
+            while (other != null && compare(other, value) < 0) {
+                other = it.hasNext() ? it.next() : null;
+            }
+            if (other == null || compare(other, value) != 0) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Объединение, пересечение и разность строятся на split / join
+     * (Blelloch, Ferizovic, Sun, "Just Join for Parallel Ordered Sets"), join по чёрной высоте, как в статье.
+     * Сравнений O(m log(n / m + 1)), но узлы хранят ссылку на родителя, поэтому делить поддеревья с аргументами
+     * нельзя: поддеревья, целиком попадающие в результат, копируются, и каждая операция стоит полной копии,
+     * O(n + m) времени и памяти. Оба аргумента не меняются.
+     * Пока обе половины не меньше {@link #PARALLEL_THRESHOLD}, левая рекурсия уходит в ForkJoinPool.commonPool().
+     *
+     * @return a new tree with the elements of this tree and other
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     */
+    public RedBlackTree<E> union(RedBlackTree<E> other) {
+        checkComparator(other);
+        RedBlackTree<E> result = new RedBlackTree<>(comparator);
+        return result.withRoot(result.union(root, other.root));
+    }
+
+    /**
+     * @return a new tree with the elements that are in both this tree and other
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     * @see #union(RedBlackTree)
+     */
+    public RedBlackTree<E> intersect(RedBlackTree<E> other) {
+        checkComparator(other);
+        RedBlackTree<E> result = new RedBlackTree<>(comparator);
+        return result.withRoot(result.intersect(root, other.root));
+    }
+
+    /**
+     * @return a new tree with the elements of this tree that are not in other
+     * @throws IllegalArgumentException if the trees are ordered by different comparators
+     * @see #union(RedBlackTree)
+     */
+    public RedBlackTree<E> difference(RedBlackTree<E> other) {
+        checkComparator(other);
+        RedBlackTree<E> result = new RedBlackTree<>(comparator);
+        return result.withRoot(result.difference(root, other.root));
+    }
+
+    private void checkComparator(RedBlackTree<E> other) {
+        if (!Objects.equals(comparator, other.comparator)) {
+            throw new IllegalArgumentException("trees are ordered by different comparators");
+        }
+    }
+
+    /**
+     * Операции выполняются на дереве-результате, чтобы новые узлы ссылались на него, а не на аргументы.
+     * В конце листья аргументов заменяются своим NIL, расставляются ссылки на родителей, корень красится в чёрный.
+     */
+    private RedBlackTree<E> withRoot(Node root) {
+        if (isNil(root)) {
+            this.root = NIL;
+            size = 0;
+            return this;
+        }
+        root.color = BLACK;
+        root.parent = NIL;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (isNil(node.left)) {
+                node.left = NIL;
+            } else {
+                node.left.parent = node;
+                stack.push(node.left);
+            }
+            if (isNil(node.right)) {
+                node.right = NIL;
+            } else {
+                node.right.parent = node;
+                stack.push(node.right);
+            }
+        }
+        this.root = root;
+        size = root.count;
+        return this;
+    }
+
+    /**
+     * У каждого дерева свой NIL, а в операциях встречаются узлы обоих аргументов
+     */
+    private boolean isNil(Node node) {
+        return node.key == null;
+    }
+
+    private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    private boolean isLarge(Node t1, Node t2) {
+        return t1.count >= PARALLEL_THRESHOLD && t2.count >= PARALLEL_THRESHOLD;
+    }
+
+    private Node union(Node t1, Node t2) {
+        if (isNil(t1)) {
+            return copy(t2);
+        }
+        if (isNil(t2)) {
+            return copy(t1);
+        }
+        Split s = split(t2, t1.key);
+        ForkJoinTask<Node> left = isLarge(t1, t2) ? ForkJoinTask.adapt(() -> union(t1.left, s.left)).fork() : null;
+        Node r = union(t1.right, s.right);
+        Node l = left != null ? left.join() : union(t1.left, s.left);
+        return join(l, t1.key, r, false);
+    }
+
+    private Node intersect(Node t1, Node t2) {
+        if (isNil(t1) || isNil(t2)) {
+            return NIL;
+        }
+        Split s = split(t2, t1.key);
+        ForkJoinTask<Node> left = isLarge(t1, t2) ? ForkJoinTask.adapt(() -> intersect(t1.left, s.left)).fork() : null;
+        Node r = intersect(t1.right, s.right);
+        Node l = left != null ? left.join() : intersect(t1.left, s.left);
+        return s.found ? join(l, t1.key, r, false) : join2(l, r);
+    }
+
+    private Node difference(Node t1, Node t2) {
+        if (isNil(t1)) {
+            return NIL;
+        }
+        if (isNil(t2)) {
+            return copy(t1);
+        }
+        Split s = split(t1, t2.key);
+        ForkJoinTask<Node> left = isLarge(t1, t2) ? ForkJoinTask.adapt(() -> difference(s.left, t2.left)).fork() : null;
+        Node r = difference(s.right, t2.right);
+        Node l = left != null ? left.join() : difference(s.left, t2.left);
+        return join2(l, r);
+    }
+
+    private class Split {
+        private Node left = NIL;
+        private Node right = NIL;
+        private boolean found;
+        private E key;
+    }
+
+    /**
+     * Делит дерево по key, не изменяя его: узлы на пути поиска копируются, остальные поддеревья общие с t.
+     */
+    private Split split(Node t, E key) {
+        if (isNil(t)) {
+            return new Split();
+        }
+        int cmp = compare(key, t.key);
+        if (cmp == 0) {
+            Split s = new Split();
+            s.left = t.left;
+            s.right = t.right;
+            s.found = true;
+            return s;
+        }
+        if (cmp < 0) {
+            Split s = split(t.left, key);
+            s.right = join(s.right, t.key, t.right, true);
+            return s;
+        }
+        Split s = split(t.right, key);
+        s.left = join(t.left, t.key, s.left, true);
+        return s;
+    }
+
+    private int blackHeight(Node t) {
+        int height = 0;
+        for (; !isNil(t); t = t.left) {
+            if (t.color == BLACK) {
+                height++;
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Соединяет деревья, все ключи l меньше key, а все ключи r больше. Корни l и r могут быть красными.
+     *
+     * @param persistent копировать узлы перед изменением, если l и r делят узлы с другими деревьями
+     */
+    private Node join(Node l, E key, Node r, boolean persistent) {
+        int lh = blackHeight(l);
+        int rh = blackHeight(r);
+        if (lh > rh) {
+            Node t = joinRight(l, lh, key, r, rh, persistent);
+            if (t.color == RED && t.right.color == RED) {
+                t.color = BLACK;
+            }
+            return t;
+        }
+        if (rh > lh) {
+            Node t = joinLeft(l, lh, key, r, rh, persistent);
+            if (t.color == RED && t.left.color == RED) {
+                t.color = BLACK;
+            }
+            return t;
+        }
+        Node node = new Node(key);
+        node.color = l.color == BLACK && r.color == BLACK ? RED : BLACK;
+        return link(l, node, r);
+    }
+
+    private Node joinRight(Node l, int lh, E key, Node r, int rh, boolean persistent) {
+        if (l.color == BLACK && lh == rh) {
+            Node node = new Node(key);
+            node.color = RED;
+            return link(l, node, r);
+        }
+        Node t = own(l, persistent);
+        Node right = joinRight(t.right, t.color == BLACK ? lh - 1 : lh, key, r, rh, persistent);
+        link(t.left, t, right);
+        if (t.color == BLACK && right.color == RED && right.right.color == RED) {
+            right.right = own(right.right, persistent);
+            right.right.color = BLACK;
+            return rotatedLeft(t);
+        }
+        return t;
+    }
+
+    private Node joinLeft(Node l, int lh, E key, Node r, int rh, boolean persistent) {
+        if (r.color == BLACK && lh == rh) {
+            Node node = new Node(key);
+            node.color = RED;
+            return link(l, node, r);
+        }
+        Node t = own(r, persistent);
+        Node left = joinLeft(l, lh, key, t.left, t.color == BLACK ? rh - 1 : rh, persistent);
+        link(left, t, t.right);
+        if (t.color == BLACK && left.color == RED && left.left.color == RED) {
+            left.left = own(left.left, persistent);
+            left.left.color = BLACK;
+            return rotatedRight(t);
+        }
+        return t;
+    }
+
+    /**
+     * Соединение без разделителя: максимум l становится разделителем. l и r принадлежат результату.
+     */
+    private Node join2(Node l, Node r) {
+        if (isNil(l)) {
+            return r;
+        }
+        Split last = splitLast(l);
+        return join(last.left, last.key, r, false);
+    }
+
+    private Split splitLast(Node t) {
+        if (isNil(t.right)) {
+            Split s = new Split();
+            s.left = t.left;
+            s.key = t.key;
+            return s;
+        }
+        Split s = splitLast(t.right);
+        s.left = join(t.left, t.key, s.left, false);
+        return s;
+    }
+
+    /**
+     * Поворот без ссылок на родителя - они расставляются в withRoot
+     */
+    private Node rotatedLeft(Node t) {
+        Node p = t.right;
+        link(t.left, t, p.left);
+        return link(t, p, p.right);
+    }
+
+    private Node rotatedRight(Node t) {
+        Node q = t.left;
+        link(q.right, t, t.right);
+        return link(q.left, q, t);
+    }
+
+    private Node link(Node l, Node node, Node r) {
+        node.left = l;
+        node.right = r;
+        node.count = l.count + r.count + 1;
+        return node;
+    }
+
+    private Node own(Node node, boolean persistent) {
+        if (!persistent || isNil(node)) {
+            return node;
+        }
+        Node copy = new Node(node.key);
+        copy.left = node.left;
+        copy.right = node.right;
+        copy.color = node.color;
+        copy.count = node.count;
+        return copy;
+    }
+
+    private Node copy(Node node) {
+        if (isNil(node)) {
+            return NIL;
+        }
+        Node copy = new Node(node.key);
+        copy.left = copy(node.left);
+        copy.right = copy(node.right);
+        copy.color = node.color;
+        copy.count = node.count;
+        return copy;
+    }
+
+    private boolean isStrictlySorted(Iterable<? extends E> values) {
+        E prev = null;
+        for (E value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            if (prev != null && compare(prev, value) >= 0) {
+                return false;
+            }
+            prev = value;
+        }
+        return true;
+    }
+
+    private List<E> merge(Collection<? extends E> sorted) {
+        List<E> merged = new ArrayList<>(size + sorted.size());
+        Iterator<E> it1 = iterator();
+        Iterator<? extends E> it2 = sorted.iterator();
+        E v1 = it1.next();
+        E v2 = it2.next();
+        while (v1 != null || v2 != null) {
+            int cmp = v1 == null ? 1 : v2 == null ? -1 : compare(v1, v2);
+            if (cmp <= 0) {
+                merged.add(v1);
+                v1 = it1.hasNext() ? it1.next() : null;
+                if (cmp == 0) {
+                    v2 = it2.hasNext() ? it2.next() : null;
+                }
+            } else {
+                merged.add(v2);
+                v2 = it2.hasNext() ? it2.next() : null;
+            }
+        }
+        return merged;
+    }
+
+    private void build(Collection<? extends E> sorted) {
+        int n = sorted.size();
+        //глубина нижнего уровня, если он неполный; все узлы на ней красные
+        int redLevel = 0;
+        for (int m = n - 1; m >= 0; m = m / 2 - 1) {
+            redLevel++;
+        }
+        root = build(sorted.iterator(), n, 0, redLevel);
+        root.parent = NIL;
+        size = n;
+    }
+
+    private Node build(Iterator<? extends E> it, int n, int level, int redLevel) {
+        if (n == 0) {
+            return NIL;
+        }
+        int leftSize = (n - 1) / 2;
+        Node left = build(it, leftSize, level + 1, redLevel);
+        Node node = new Node(it.next());
+        node.left = left;
+        if (left != NIL) {
+            left.parent = node;
+        }
+        Node right = build(it, n - leftSize - 1, level + 1, redLevel);
+        node.right = right;
+        if (right != NIL) {
+            right.parent = node;
+        }
+        node.color = level == redLevel ? RED : BLACK;
+        node.count = n;
+        return node;
+    }
+
     private int compare(E v1, E v2) {
         return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
     }
 
+    /**
+     * Пересчёт размеров поддеревьев при повороте вокруг n: pivot занимает место n и получает его размер,
+     * n теряет pivot и его поддерево со стороны поворота.
+     */
+    private void fixCounts(Node n, Node pivot) {
+        Node moved = pivot == n.left ? pivot.right : pivot.left;
+        int total = n.count;
+        n.count = total - pivot.count + moved.count;
+        pivot.count = total;
+    }
+
     private void rightRotate(Node n) {
+        if (metrics != null) {
+            metrics.rotations++;
+        }
+        fixCounts(n, n.left);
         if (n.parent != NIL) {
             if (n == n.parent.left) {
                 n.parent.left = n.left;
@@ -52,6 +681,10 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     private void leftRotate(Node n) {
+        if (metrics != null) {
+            metrics.rotations++;
+        }
+        fixCounts(n, n.right);
         if (n.parent != NIL) {
             if (n == n.parent.left) {
                 n.parent.left = n.right;
@@ -107,19 +740,92 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
 
+
+    @Override
+    public E floor(E value) {
+        return walker.nearest(root, value, true, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return walker.nearest(root, value, false, true);
+    }
+
+    @Override
+    public E higher(E value) {
+        return walker.nearest(root, value, false, false);
+    }
+
+    @Override
+    public E lower(E value) {
+        return walker.nearest(root, value, true, false);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E select(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+        }
+        Node curr = root;
+        while (true) {
+            int left = curr.left.count;
+            if (k == left) {
+                return curr.key;
+            }
+            if (k < left) {
+                curr = curr.left;
+            } else {
+                k -= left + 1;
+                curr = curr.right;
+            }
+        }
+    }
+
+    @Override
+    public int rank(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int rank = 0;
+        Node curr = root;
+        while (curr != NIL) {
+            if (compare(value, curr.key) <= 0) {
+                curr = curr.left;
+            } else {
+                rank += curr.left.count + 1;
+                curr = curr.right;
+            }
+        }
+        return rank;
+    }
+
     public List<E> inorderTraverse() {
-        List<E> result = new ArrayList<>();
-        inorderTraverse(root, result);
+        List<E> result = new ArrayList<>(size);
+        forEach(result::add);
         return result;
     }
 
-    private void inorderTraverse(Node node, List<E> list) {
-        if (node == null || node.equals(NIL)) {
-            return;
+    @Override
+    public Iterator<E> iterator() {
+        return walker.cursor(root, size);
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
         }
-        inorderTraverse(node.left, list);
-        list.add(node.key);
-        inorderTraverse(node.right, list);
+        return walker.cursor(root, fromElement, size);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return walker.cursor(root, size);
     }
 
 
@@ -158,47 +864,73 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         if (value == null) {
             throw new NullPointerException("Null value");
         }
-        boolean res;
+        Node parent = NIL;
+        int cmp = 0;
+        Node curr = root;
+        while (curr != NIL) {
+            cmp = compare(value, curr.key);
+            if (cmp == 0) {
+                return false;
+            }
+            parent = curr;
+            curr = cmp < 0 ? curr.left : curr.right;
+        }
+        attach(parent, cmp, value);
+        return true;
+    }
+
+    /**
+     * Подвешивает новый красный узел к parent (NIL - дерево пусто) слева при cmp < 0, иначе справа,
+     * и восстанавливает свойства дерева
+     *
+     * @return the new node
+     */
+    private Node attach(Node parent, int cmp, E value) {
         Node nodeToAdd = new Node(value);
-        Node compNode = root;
-        if (root != NIL) {
-            while (true) {
-                if (compare(nodeToAdd.key, compNode.key) < 0) {
-                    if (compNode.left == NIL) {
-                        compNode.left = nodeToAdd;
-                        nodeToAdd.parent = compNode;
-                        nodeToAdd.color = RED;
-                        res = true;
-                        break;
-                    } else {
-                        compNode = compNode.left;
-                    }
-                } else if (compare(nodeToAdd.key, compNode.key) > 0) {
-                    if (compNode.right == NIL) {
-                        compNode.right = nodeToAdd;
-                        nodeToAdd.parent = compNode;
-                        nodeToAdd.color = RED;
-                        res = true;
-                        break;
-                    } else {
-                        compNode = compNode.right;
-                    }
-                } else {
-                    res = false;
-                    break;
-                }
+        if (parent != NIL) {
+            if (cmp < 0) {
+                parent.left = nodeToAdd;
+            } else {
+                parent.right = nodeToAdd;
             }
-            if(res)
-                fixAdd(nodeToAdd);
+            nodeToAdd.parent = parent;
+            nodeToAdd.color = RED;
+            for (Node p = parent; p != NIL; p = p.parent) {
+                p.count++;
+            }
+            fixAdd(nodeToAdd);
         } else {
             root = nodeToAdd;
             nodeToAdd.color = BLACK;
             nodeToAdd.parent = NIL;
-            res = true;
         }
-        if(res)
-            size++;
-        return res;
+        size++;
+        return nodeToAdd;
+    }
+
+    /**
+     * Перекрашивание без поворота: в fixAdd случай красного дяди, в fixRemove - брата с двумя чёрными детьми
+     */
+    private void recordRecolor() {
+        if (metrics != null) {
+            metrics.recolors++;
+        }
+    }
+
+    @Override
+    public void enableMetrics() {
+        metrics = new MetricsRecorder();
+    }
+
+    @Override
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    @Override
+    public SetMetrics metrics() {
+        MetricsRecorder recorder = metrics;
+        return recorder == null ? null : recorder.snapshot();
     }
 
     private void fixAdd(Node node) {
@@ -210,6 +942,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
                     uncle.color = BLACK;
                     node.parent.parent.color = RED;
                     node = node.parent.parent;
+                    recordRecolor();
                 } else {
                     if (node == node.parent.right){
                         node = node.parent;
@@ -226,6 +959,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
                     uncle.color = BLACK;
                     node.parent.parent.color = RED;
                     node = node.parent.parent;
+                    recordRecolor();
                 } else {
                     if (node == node.parent.left){
                         node = node.parent;
@@ -246,17 +980,27 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         if (value == null) {
             throw new NullPointerException();
         }
-        Node nodeForRemove, n, k;
-        nodeForRemove = nodeForRemove(value, root);
+        Node nodeForRemove = nodeForRemove(value, root);
         if(nodeForRemove == NIL){
             return false;
         }
+        removeNode(nodeForRemove);
+        return true;
+    }
+
+    /**
+     * Вырезает узел; остальные узлы сохраняют свои ключи, меняются только ссылки
+     */
+    private void removeNode(Node nodeForRemove) {
+        Node n, k;
         boolean isFixNeeded = nodeForRemove.color == BLACK;
 
         if(nodeForRemove.left == NIL) {
+            decrementCounts(nodeForRemove.parent);
             n = nodeForRemove.right;
             performTransplant(nodeForRemove, nodeForRemove.right);
         } else if(nodeForRemove.right == NIL){
+            decrementCounts(nodeForRemove.parent);
             n = nodeForRemove.left;
             performTransplant(nodeForRemove, nodeForRemove.left);
         } else {
@@ -265,6 +1009,8 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
                 tempRoot = tempRoot.left;
             }
             k = tempRoot;
+            decrementCounts(k.parent);
+            k.count = nodeForRemove.count;
             isFixNeeded = k.color == BLACK;
             n = k.right;
             if(k.parent == nodeForRemove) {
@@ -285,7 +1031,12 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         }
 
         size--;
-        return true;
+    }
+
+    private void decrementCounts(Node node) {
+        for (; node != NIL; node = node.parent) {
+            node.count--;
+        }
     }
 
     private void performTransplant(Node n, Node k) {
@@ -312,6 +1063,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
                 if(w.left.color == BLACK && w.right.color == BLACK) {
                     w.color = RED;
                     node = node.parent;
+                    recordRecolor();
                     continue;
                 } else if(w.right.color == BLACK) {
                     w.left.color = BLACK;
@@ -337,6 +1089,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
                 if(w.right.color == BLACK && w.left.color == BLACK) {
                     w.color = RED;
                     node = node.parent;
+                    recordRecolor();
                     continue;
                 } else if(w.left.color == BLACK) {
                     w.right.color = BLACK;
@@ -378,6 +1131,8 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
 
         Node(E value) {
             this.key = value;
+            //у NIL поддерево пустое
+            this.count = value == null ? 0 : 1;
         }
 
         E key;
@@ -385,5 +1140,6 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         Node right = NIL;
         Node parent = NIL;
         Color color = BLACK;
+        int count;
     }
 }
@@ -0,0 +1,122 @@
+package ru.mail.polis;
+
+/**
+ * Неизменяемый снимок метрик {@link Instrumented} множества. Метрики, которых у структуры нет, равны нулю.
+ * Гистограммы логарифмические: корзина 0 - значение 0, корзина i > 0 - значения из [2^(i-1), 2^i).
+ * <ul>
+ * <li>probeHistogram - сколько ячеек или узлов цепочки просмотрела каждая операция поиска, вставки и удаления;</li>
+ * <li>chainLengthHistogram - длины цепочек по всем корзинам {@link ChainHashTable} в момент снимка;</li>
+ * <li>rotations и recolors - повороты и перекрашивания без поворота при балансировке деревьев;</li>
+ * <li>resizes и resizeNanos - число перехеширований и суммарное время переноса элементов;</li>
+ * <li>maxDepth и averageDepth - глубина узлов {@link BinarySearchTree} (у корня 0) в момент снимка.</li>
+ * </ul>
+ */
+public final class SetMetrics implements SetMetricsMXBean {
+
+    static final int BUCKETS = 33;
+
+    static final SetMetrics EMPTY = new SetMetrics(new long[BUCKETS], new long[BUCKETS], 0, 0, 0, 0, 0, 0);
+
+    private final long[] probeHistogram;
+    private final long[] chainLengthHistogram;
+    private final long rotations;
+    private final long recolors;
+    private final long resizes;
+    private final long resizeNanos;
+    private final int maxDepth;
+    private final double averageDepth;
+
+    SetMetrics(long[] probeHistogram, long[] chainLengthHistogram, long rotations, long recolors,
+               long resizes, long resizeNanos, int maxDepth, double averageDepth) {
+        this.probeHistogram = probeHistogram;
+        this.chainLengthHistogram = chainLengthHistogram;
+        this.rotations = rotations;
+        this.recolors = recolors;
+        this.resizes = resizes;
+        this.resizeNanos = resizeNanos;
+        this.maxDepth = maxDepth;
+        this.averageDepth = averageDepth;
+    }
+
+    /**
+     * @return the histogram bucket the value falls into
+     */
+    public static int bucket(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * @return the smallest value that falls into the bucket
+     */
+    public static int bucketLowerBound(int bucket) {
+        return bucket == 0 ? 0 : 1 << (bucket - 1);
+    }
+
+    @Override
+    public long[] getProbeHistogram() {
+        return probeHistogram.clone();
+    }
+
+    @Override
+    public long[] getChainLengthHistogram() {
+        return chainLengthHistogram.clone();
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public long getRecolors() {
+        return recolors;
+    }
+
+    @Override
+    public long getResizes() {
+        return resizes;
+    }
+
+    @Override
+    public long getResizeNanos() {
+        return resizeNanos;
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public double getAverageDepth() {
+        return averageDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "SetMetrics{probes=" + histogram(probeHistogram)
+                + ", chains=" + histogram(chainLengthHistogram)
+                + ", rotations=" + rotations
+                + ", recolors=" + recolors
+                + ", resizes=" + resizes
+                + ", resizeNanos=" + resizeNanos
+                + ", maxDepth=" + maxDepth
+                + ", averageDepth=" + averageDepth + '}';
+    }
+
+    /**
+     * Только непустые корзины, в виде {нижняя граница: число}
+     */
+    private static String histogram(long[] histogram) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] != 0) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(bucketLowerBound(i)).append(": ").append(histogram[i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,23 @@
+package ru.mail.polis;
+
+/**
+ * Метрики множества в JMX, см. {@link SetMetrics}
+ */
+public interface SetMetricsMXBean {
+
+    long[] getProbeHistogram();
+
+    long[] getChainLengthHistogram();
+
+    long getRotations();
+
+    long getRecolors();
+
+    long getResizes();
+
+    long getResizeNanos();
+
+    int getMaxDepth();
+
+    double getAverageDepth();
+}
@@ -0,0 +1,66 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator поверх итератора сортированного множества: как {@link Spliterators#spliterator(Iterator, long, int)},
+ * но дополнительно SORTED и с компаратором множества, поэтому sorted() на таком потоке не сортирует заново.
+ * Куски, отделённые trySplit, тоже SORTED с тем же компаратором.
+ */
+final class SortedIteratorSpliterator<E> implements Spliterator<E> {
+
+    private final Spliterator<E> delegate;
+    private final Comparator<? super E> comparator;
+
+    private SortedIteratorSpliterator(Spliterator<E> delegate, Comparator<? super E> comparator) {
+        this.delegate = delegate;
+        this.comparator = comparator;
+    }
+
+    /**
+     * @param size exact number of elements, or -1 if unknown
+     * @param characteristics characteristics besides ORDERED, SORTED, DISTINCT and NONNULL
+     */
+    static <E> Spliterator<E> of(Iterator<E> iterator, long size, int characteristics,
+                                 Comparator<? super E> comparator) {
+        characteristics |= Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return new SortedIteratorSpliterator<>(size < 0
+                ? Spliterators.spliteratorUnknownSize(iterator, characteristics)
+                : Spliterators.spliterator(iterator, size, characteristics), comparator);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        return delegate.tryAdvance(action);
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        delegate.forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        Spliterator<E> prefix = delegate.trySplit();
+        return prefix == null ? null : new SortedIteratorSpliterator<>(prefix, comparator);
+    }
+
+    @Override
+    public long estimateSize() {
+        return delegate.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return delegate.characteristics();
+    }
+
+    @Override
+    public Comparator<? super E> getComparator() {
+        return comparator;
+    }
+}
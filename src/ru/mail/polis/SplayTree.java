@@ -0,0 +1,335 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * Splay-дерево (Sleator, Tarjan): каждый доступ поднимает найденный узел в корень,
+ * поэтому часто и недавно запрошенные ключи лежат у корня. Операции - O(log n) амортизированно.
+ * Splay нисходящий, без рекурсии и без ссылок на родителя: путь поиска разбирается на левое и правое
+ * деревья, которые в конце подвешиваются к найденному узлу.
+ * Даже contains и навигация меняют форму дерева, поэтому итератор, как и у остальных деревьев,
+ * нельзя смешивать с другими операциями над множеством.
+ */
+public class SplayTree<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private class Node {
+        private final E key;
+        private Node left;
+        private Node right;
+
+        Node(E key) {
+            this.key = key;
+        }
+    }
+
+    private final Comparator<E> comparator;
+    /**
+     * Голова левого и правого деревьев во время splay: header.right - левое дерево, header.left - правое
+     */
+    private final Node header = new Node(null);
+    private Node root;
+    private int size;
+    private final TreeWalker<Node, E> walker = new TreeWalker<Node, E>(null) {
+        @Override
+        Node left(Node node) {
+            return node.left;
+        }
+
+        @Override
+        Node right(Node node) {
+            return node.right;
+        }
+
+        @Override
+        E key(Node node) {
+            return node.key;
+        }
+
+        @Override
+        Comparator<? super E> comparator() {
+            return comparator;
+        }
+    };
+
+    public SplayTree() {
+        this(null);
+    }
+
+    public SplayTree(Comparator<E> comparator) {
+        this.comparator = comparator;
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Нисходящий splay: поднимает в корень key или, если его нет, последний узел на пути поиска -
+     * ближайший к key снизу или сверху.
+     *
+     * @return the new root
+     */
+    private Node splay(Node t, E key) {
+        Node l = header;
+        Node r = header;
+        header.left = null;
+        header.right = null;
+        while (true) {
+            int cmp = compare(key, t.key);
+            if (cmp < 0) {
+                if (t.left == null) {
+                    break;
+                }
+                if (compare(key, t.left.key) < 0) {
+                    //zig-zig: поворот вправо
+                    Node y = t.left;
+                    t.left = y.right;
+                    y.right = t;
+                    t = y;
+                    if (t.left == null) {
+                        break;
+                    }
+                }
+                //t и его правое поддерево больше key - в правое дерево
+                r.left = t;
+                r = t;
+                t = t.left;
+            } else if (cmp > 0) {
+                if (t.right == null) {
+                    break;
+                }
+                if (compare(key, t.right.key) > 0) {
+                    Node y = t.right;
+                    t.right = y.left;
+                    y.left = t;
+                    t = y;
+                    if (t.right == null) {
+                        break;
+                    }
+                }
+                l.right = t;
+                l = t;
+                t = t.right;
+            } else {
+                break;
+            }
+        }
+        l.right = t.left;
+        r.left = t.right;
+        t.left = header.right;
+        t.right = header.left;
+        header.left = null;
+        header.right = null;
+        return t;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root == null) {
+            return false;
+        }
+        root = splay(root, value);
+        return compare(value, root.key) == 0;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root == null) {
+            root = new Node(value);
+            size++;
+            return true;
+        }
+        root = splay(root, value);
+        int cmp = compare(value, root.key);
+        if (cmp == 0) {
+            return false;
+        }
+        //после splay между корнем и value ключей нет - новый узел встаёт над корнем
+        Node node = new Node(value);
+        if (cmp < 0) {
+            node.left = root.left;
+            node.right = root;
+            root.left = null;
+        } else {
+            node.right = root.right;
+            node.left = root;
+            root.right = null;
+        }
+        root = node;
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root == null) {
+            return false;
+        }
+        root = splay(root, value);
+        if (compare(value, root.key) != 0) {
+            return false;
+        }
+        if (root.left == null) {
+            root = root.right;
+        } else {
+            //value больше всех ключей левого поддерева, поэтому splay поднимет максимум, у которого нет правого ребёнка
+            Node right = root.right;
+            root = splay(root.left, value);
+            root.right = right;
+        }
+        size--;
+        return true;
+    }
+
+    @Override
+    public E first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return access(min(root));
+    }
+
+    @Override
+    public E last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return access(max(root));
+    }
+
+    private Node min(Node node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private Node max(Node node) {
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Поднимает найденный спуском узел в корень: спуск оплачивается этим splay, как в амортизационном анализе
+     */
+    private E access(Node node) {
+        if (node == null) {
+            return null;
+        }
+        root = splay(root, node.key);
+        return node.key;
+    }
+
+    @Override
+    public E floor(E value) {
+        return nearest(value, true, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return nearest(value, false, true);
+    }
+
+    @Override
+    public E higher(E value) {
+        return nearest(value, false, false);
+    }
+
+    @Override
+    public E lower(E value) {
+        return nearest(value, true, false);
+    }
+
+    /**
+     * После splay(value) в корне value или его соседний ключ, а второй сосед - крайний узел поддерева корня.
+     */
+    private E nearest(E value, boolean lower, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root == null) {
+            return null;
+        }
+        root = splay(root, value);
+        int cmp = compare(root.key, value);
+        if (cmp == 0 && inclusive) {
+            return root.key;
+        }
+        if (lower) {
+            if (cmp < 0) {
+                return root.key;
+            }
+            return root.left == null ? null : access(max(root.left));
+        }
+        if (cmp > 0) {
+            return root.key;
+        }
+        return root.right == null ? null : access(min(root.right));
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> result = new ArrayList<>(size);
+        forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Обход не делает splay; после последовательных вставок дерево может быть путём, тогда стек - O(n)
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return walker.cursor(root, size);
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root != null) {
+            //после splay начало обхода у корня
+            root = splay(root, fromElement);
+        }
+        return walker.cursor(root, fromElement, size);
+    }
+
+    /**
+     * Делится по границам поддеревьев, как у остальных деревьев; splay не делает
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return walker.cursor(root, size);
+    }
+}
@@ -0,0 +1,215 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * Ленивое представление диапазона [from, to) другого сортированного множества, ничего не копирует.
+ * {@code null} в границе означает, что с этой стороны диапазон не ограничен.
+ * Навигация и поиск работают за O(log n), обход - за O(log n + k) через {@link ISortedSet#iterator(Comparable)},
+ * size() считает элементы обходом диапазона.
+ */
+class SubSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private final ISortedSet<E> set;
+    private final E from;
+    private final E to;
+
+    SubSet(ISortedSet<E> set, E from, E to) {
+        if (from != null && to != null && compare(set.comparator(), from, to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        this.set = set;
+        this.from = from;
+        this.to = to;
+    }
+
+    private int compare(E v1, E v2) {
+        return compare(set.comparator(), v1, v2);
+    }
+
+    private static <E extends Comparable<E>> int compare(Comparator<? super E> comparator, E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    private boolean tooLow(E value) {
+        return from != null && compare(value, from) < 0;
+    }
+
+    private boolean tooHigh(E value) {
+        return to != null && compare(value, to) >= 0;
+    }
+
+    private boolean inRange(E value) {
+        return !tooLow(value) && !tooHigh(value);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Iterator<E> it = iterator(); it.hasNext(); it.next()) {
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return !iterator().hasNext();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return inRange(value) && set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!inRange(value)) {
+            throw new IllegalArgumentException("value out of range");
+        }
+        return set.add(value);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return inRange(value) && set.remove(value);
+    }
+
+    @Override
+    public E first() {
+        E first = from == null ? (set.isEmpty() ? null : set.first()) : set.ceiling(from);
+        if (first == null || tooHigh(first)) {
+            throw new NoSuchElementException("set is empty, no first element");
+        }
+        return first;
+    }
+
+    @Override
+    public E last() {
+        E last = to == null ? (set.isEmpty() ? null : set.last()) : set.lower(to);
+        if (last == null || tooLow(last)) {
+            throw new NoSuchElementException("set is empty, no last element");
+        }
+        return last;
+    }
+
+    @Override
+    public E floor(E value) {
+        E result = tooHigh(value) ? set.lower(to) : set.floor(value);
+        return result == null || tooLow(result) ? null : result;
+    }
+
+    @Override
+    public E lower(E value) {
+        E result = tooHigh(value) ? set.lower(to) : set.lower(value);
+        return result == null || tooLow(result) ? null : result;
+    }
+
+    @Override
+    public E ceiling(E value) {
+        E result = tooLow(value) ? set.ceiling(from) : set.ceiling(value);
+        return result == null || tooHigh(result) ? null : result;
+    }
+
+    @Override
+    public E higher(E value) {
+        E result = tooLow(value) ? set.ceiling(from) : set.higher(value);
+        return result == null || tooHigh(result) ? null : result;
+    }
+
+    @Override
+    public ISortedSet<E> subSet(E fromElement, E toElement) {
+        if (fromElement == null || toElement == null) {
+            throw new NullPointerException("bound is null");
+        }
+        return new SubSet<>(set, tooLow(fromElement) ? from : fromElement, tooHigh(toElement) ? to : toElement);
+    }
+
+    @Override
+    public ISortedSet<E> headSet(E toElement) {
+        if (toElement == null) {
+            throw new NullPointerException("bound is null");
+        }
+        return new SubSet<>(set, from, tooHigh(toElement) ? to : toElement);
+    }
+
+    @Override
+    public ISortedSet<E> tailSet(E fromElement) {
+        if (fromElement == null) {
+            throw new NullPointerException("bound is null");
+        }
+        return new SubSet<>(set, tooLow(fromElement) ? from : fromElement, to);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return set.comparator();
+    }
+
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> result = new ArrayList<>();
+        forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return iterator(from);
+    }
+
+    @Override
+    public Iterator<E> iterator(E fromElement) {
+        Iterator<E> it;
+        if (fromElement == null) {
+            it = set.iterator();
+        } else {
+            it = set.iterator(tooLow(fromElement) ? from : fromElement);
+        }
+        return new Iterator<E>() {
+            private E next = advance();
+
+            private E advance() {
+                if (!it.hasNext()) {
+                    return null;
+                }
+                E value = it.next();
+                return tooHigh(value) ? null : value;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E result = next;
+                next = advance();
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return SortedIteratorSpliterator.of(iterator(), -1, 0, set.comparator());
+    }
+}
@@ -0,0 +1,247 @@
+package ru.mail.polis;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Хеш-таблица в духе Swiss table: открытая адресация группами по {@link #GROUP} ячеек.
+ * Рядом с массивом ключей лежит байтовый массив control: для занятой ячейки в нём 7 старших бит хеша
+ * (fingerprint), иначе EMPTY или DELETED. Группа из 8 control-байтов читается одним long и сравнивается
+ * с fingerprint побитовыми операциями (SWAR), поэтому ключи сравниваются почти только при настоящем
+ * совпадении, а промах обычно не трогает ни одного ключа.
+ * Группы перебираются квадратично (шаги 1, 2, 3...), поиск останавливается на первой группе с EMPTY.
+ * Благодаря этому таблица держит load factor 7/8; рост вдвое при заполнении (вместе с надгробиями) на 7/8,
+ * а если в основном это надгробия - перехеширование без увеличения.
+ */
+public class SwissHashTable<E extends Comparable<E>> implements ISet<E> {
+
+    private static final int GROUP = 8;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private static final byte EMPTY = (byte) 0x80;
+    private static final byte DELETED = (byte) 0xFE;
+
+    private static final long LSB = 0x0101010101010101L;
+    private static final long MSB = 0x8080808080808080L;
+
+    /**
+     * Чтение 8 control-байтов одним long; little-endian, чтобы байт i группы был i-м байтом числа
+     */
+    private static final VarHandle GROUP_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final int INITIAL_CAPACITY = 8;
+
+    private final Comparator<E> comparator;
+    private byte[] control;
+    private Object[] table;
+    /**
+     * Число групп минус один
+     */
+    private int groupMask;
+    private int size;
+    private int deleted;
+
+    public SwissHashTable() {
+        this(null);
+    }
+
+    public SwissHashTable(Comparator<E> comparator) {
+        this.comparator = comparator;
+        init(INITIAL_CAPACITY);
+    }
+
+    private void init(int capacity) {
+        control = new byte[capacity];
+        Arrays.fill(control, EMPTY);
+        table = new Object[capacity];
+        groupMask = capacity / GROUP - 1;
+        deleted = 0;
+    }
+
+    /**
+     * Перемешивание, чтобы и номер группы (младшие биты), и fingerprint (старшие 7 бит) зависели от всего hashCode
+     */
+    private static int hash(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static byte fingerprint(int hash) {
+        return (byte) (hash >>> 25);
+    }
+
+    private long group(int g) {
+        return (long) GROUP_VIEW.get(control, g * GROUP);
+    }
+
+    /**
+     * @return a mask with the high bit set in every byte equal to fp; may contain false positives above
+     * a real match (borrow), which the key comparison filters out
+     */
+    private static long match(long group, byte fp) {
+        long x = group ^ (LSB * (fp & 0xFF));
+        return (x - LSB) & ~x & MSB;
+    }
+
+    /**
+     * У EMPTY (1000_0000) старший бит 1 и первый 0, у DELETED (1111_1110) оба 1, у занятых старший 0
+     */
+    private static long matchEmpty(long group) {
+        return group & (~group << 6) & MSB;
+    }
+
+    private static long matchEmptyOrDeleted(long group) {
+        return group & MSB;
+    }
+
+    private static int lowestByte(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return indexOf(value, hash(value.hashCode())) >= 0;
+    }
+
+    private int indexOf(E value, int hash) {
+        byte fp = fingerprint(hash);
+        int g = hash & groupMask;
+        for (int step = 1; ; step++) {
+            long group = group(g);
+            for (long m = match(group, fp); m != 0; m &= m - 1) {
+                int idx = g * GROUP + lowestByte(m);
+                if (compare(value, elementAt(idx)) == 0) {
+                    return idx;
+                }
+            }
+            if (matchEmpty(group) != 0) {
+                return -1;
+            }
+            //треугольные числа: при числе групп 2^k обходятся все группы
+            g = (g + step) & groupMask;
+        }
+    }
+
+    /**
+     * @return the first EMPTY or DELETED slot on the probe sequence of hash
+     */
+    private int freeSlot(int hash) {
+        int g = hash & groupMask;
+        for (int step = 1; ; step++) {
+            long m = matchEmptyOrDeleted(group(g));
+            if (m != 0) {
+                return g * GROUP + lowestByte(m);
+            }
+            g = (g + step) & groupMask;
+        }
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int hash = hash(value.hashCode());
+        if (indexOf(value, hash) >= 0) {
+            return false;
+        }
+        int idx = freeSlot(hash);
+        if (control[idx] == EMPTY && size + deleted + 1 > maxLoad(control.length)) {
+            //занимаем последнюю пустую ячейку сверх 7/8 - сначала перехешируем
+            rehash(size + 1 > maxLoad(control.length) / 2 && control.length < MAXIMUM_CAPACITY
+                    ? control.length << 1 : control.length);
+            idx = freeSlot(hash);
+        }
+        if (control[idx] == DELETED) {
+            deleted--;
+        }
+        control[idx] = fingerprint(hash);
+        table[idx] = value;
+        size++;
+        return true;
+    }
+
+    private static int maxLoad(int capacity) {
+        return capacity - (capacity >>> 3);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int idx = indexOf(value, hash(value.hashCode()));
+        if (idx < 0) {
+            return false;
+        }
+        table[idx] = null;
+        //если в группе есть EMPTY, поиск и так остановится на ней, надгробие не нужно
+        if (matchEmpty(group(idx / GROUP)) != 0) {
+            control[idx] = EMPTY;
+        } else {
+            control[idx] = DELETED;
+            deleted++;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Таблица расширяется один раз под весь пакет, а не удваивается по ходу вставки.
+     */
+    @Override
+    public int addAll(Collection<? extends E> values) {
+        int capacity = control.length;
+        while ((long) size + values.size() > maxLoad(capacity) && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        if (capacity > control.length) {
+            rehash(capacity);
+        }
+        return ISet.super.addAll(values);
+    }
+
+    private void rehash(int capacity) {
+        byte[] oldControl = control;
+        Object[] old = table;
+        init(capacity);
+        for (int i = 0; i < old.length; i++) {
+            if (oldControl[i] >= 0) {
+                //все элементы уникальны - сравнивать не нужно
+                int hash = hash(old[i].hashCode());
+                int idx = freeSlot(hash);
+                control[idx] = fingerprint(hash);
+                table[idx] = old[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int idx) {
+        return (E) table[idx];
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+}
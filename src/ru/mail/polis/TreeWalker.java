@@ -0,0 +1,194 @@
+package ru.mail.polis;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Спуск и ленивый обход двоичного дерева поиска, общие для {@link AVLTree}, {@link RedBlackTree}
+ * и {@link BinarySearchTree}; {@link SplayTree} берёт только обход, его навигация делает splay.
+ * Дерево задаёт доступ к детям и ключу узла и пустое поддерево nil
+ * (null или общий лист NIL), сами узлы остаются приватными классами деревьев.
+ *
+ * @param <N> node type
+ */
+abstract class TreeWalker<N, E extends Comparable<E>> {
+
+    private final N nil;
+
+    TreeWalker(N nil) {
+        this.nil = nil;
+    }
+
+    abstract N left(N node);
+
+    abstract N right(N node);
+
+    abstract E key(N node);
+
+    abstract Comparator<? super E> comparator();
+
+    private int compare(E v1, E v2) {
+        Comparator<? super E> comparator = comparator();
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    /**
+     * Один спуск от корня: запоминаем последний узел, после которого свернули в нужную сторону.
+     *
+     * @param lower true for floor / lower, false for ceiling / higher
+     * @param inclusive whether an element equal to value is returned
+     * @return the nearest element, or null if there is none
+     * @throws NullPointerException if value is null
+     */
+    final E nearest(N root, E value, boolean lower, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        N curr = root;
+        N best = null;
+        while (curr != nil) {
+            int cmp = compare(value, key(curr));
+            if (cmp == 0 && inclusive) {
+                return key(curr);
+            }
+            if (lower ? cmp > 0 : cmp < 0) {
+                best = curr;
+                curr = lower ? right(curr) : left(curr);
+            } else {
+                curr = lower ? left(curr) : right(curr);
+            }
+        }
+        return best == null ? null : key(best);
+    }
+
+    /**
+     * @param estimate size of the subtree, reported by the spliterator
+     */
+    final InorderCursor cursor(N root, long estimate) {
+        InorderCursor cursor = new InorderCursor(new ArrayDeque<>(), null, estimate);
+        cursor.pushLeft(root);
+        return cursor;
+    }
+
+    /**
+     * @return cursor over the elements greater than or equal to from
+     */
+    final InorderCursor cursor(N root, E from, long estimate) {
+        InorderCursor cursor = new InorderCursor(new ArrayDeque<>(), null, estimate);
+        N node = root;
+        while (node != nil) {
+            if (compare(key(node), from) >= 0) {
+                cursor.stack.push(node);
+                node = left(node);
+            } else {
+                node = right(node);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Ленивый обход в порядке возрастания на явном стеке: в стеке лежат узлы, которые ещё надо выдать,
+     * после каждого из них обходится его правое поддерево. Узлы в стеке упорядочены снизу вверх по убыванию,
+     * поэтому всё, что выше нижнего узла, - это префикс последовательности, его и отдаёт {@link #trySplit()}.
+     */
+    final class InorderCursor implements Iterator<E>, Spliterator<E> {
+        private ArrayDeque<N> stack;
+        /**
+         * Узел, правое поддерево которого не принадлежит этому курсору (оно отдано другой половине при разбиении)
+         */
+        private N fence;
+        private long estimate;
+
+        private InorderCursor(ArrayDeque<N> stack, N fence, long estimate) {
+            this.stack = stack;
+            this.fence = fence;
+            this.estimate = estimate;
+        }
+
+        private void pushLeft(N node) {
+            while (node != nil) {
+                stack.push(node);
+                node = left(node);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            N node = stack.pop();
+            if (node != fence) {
+                pushLeft(right(node));
+            }
+            return key(node);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (stack.isEmpty()) {
+                return false;
+            }
+            action.accept(next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            while (!stack.isEmpty()) {
+                action.accept(next());
+            }
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            N bottom = stack.peekLast();
+            if (bottom == null) {
+                return null;
+            }
+            if (stack.size() == 1) {
+                if (bottom == fence || right(bottom) == nil) {
+                    return null;
+                }
+                //отдаём сам узел, себе оставляем его правое поддерево
+                stack = new ArrayDeque<>();
+                pushLeft(right(bottom));
+                ArrayDeque<N> prefix = new ArrayDeque<>();
+                prefix.push(bottom);
+                estimate = Math.max(estimate - 1, 1);
+                return new InorderCursor(prefix, bottom, 1);
+            }
+            stack.pollLast();
+            ArrayDeque<N> prefix = stack;
+            stack = new ArrayDeque<>();
+            stack.push(bottom);
+            estimate >>>= 1;
+            return new InorderCursor(prefix, null, estimate);
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super E> getComparator() {
+            return comparator();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import ru.mail.polis.AlphaStringHashSet;
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ConcurrentChainHashTable;
+import ru.mail.polis.CuckooHashTable;
+import ru.mail.polis.ISet;
+import ru.mail.polis.Instrumented;
+import ru.mail.polis.IntHashSet;
+import ru.mail.polis.LongHashSet;
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.SetMetrics;
+import ru.mail.polis.SwissHashTable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class TestHashTable {
+
+    private final Random random = new Random();
+    /**
+     * Упавшие проверки: run(callable) печатает и запоминает их, чтобы остальные проверки тоже отработали
+     */
+    private final List<Throwable> failures = new ArrayList<>();
+
+    public static void main(String[] args) {
+        new TestHashTable().run();
+    }
+
+    @Test
+    public void hashTables() {
+        run();
+    }
+
+    private void run() {
+        test(ChainHashTable.class.getName());
+        test(OpenHashTable.class.getName());
+        test(CuckooHashTable.class.getName());
+        test(SwissHashTable.class.getName());
+        test(ConcurrentChainHashTable.class.getName());
+        test(AlphaStringHashSet.class.getName());
+        run(() -> {
+            alphaStringTest(new AlphaStringHashSet());
+            return null;
+        });
+        run(() -> {
+            concurrentTest(new ConcurrentChainHashTable<>());
+            return null;
+        });
+        run(() -> {
+            intHashSetTest();
+            return null;
+        });
+        run(() -> {
+            longHashSetTest();
+            return null;
+        });
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError(failures.size() + " checks failed");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+
+    private void test(String className) {
+        run(() -> {
+            checkEmptyAndNull(create(className));
+            return null;
+        });
+        run(() -> {
+            smallTest(create(className));
+            return null;
+        });
+        run(() -> {
+            bigRandomTest(create(className));
+            return null;
+        });
+        run(() -> {
+            deleteHeavyTest(create(className));
+            return null;
+        });
+        run(() -> {
+            batchTest(create(className));
+            return null;
+        });
+        run(() -> {
+            metricsTest(create(className));
+            return null;
+        });
+        run(() -> {
+            collisionTest(create(className));
+            return null;
+        });
+    }
+
+    private void smallTest(ISet<String> set) {
+        Set<String> OK = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            check(OK, set, word(i), true);
+        }
+        for (int i = 100; i >= 0; i--) {
+            check(OK, set, word(i), false);
+        }
+    }
+
+    private void bigRandomTest(ISet<String> set) {
+        Set<String> OK = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            check(OK, set, word(random.nextInt(5000)), true);
+        }
+        for (int i = 0; i < 10000; i++) {
+            check(OK, set, word(random.nextInt(5000)), false);
+        }
+    }
+
+    private void deleteHeavyTest(ISet<String> set) {
+        Set<String> OK = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            String value = word(random.nextInt(64));
+            check(OK, set, value, random.nextBoolean());
+        }
+    }
+
+    private void batchTest(ISet<String> set) {
+        Set<String> OK = new HashSet<>();
+        for (int round = 0; round < 10; round++) {
+            List<String> batch = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                batch.add(word(random.nextInt(20000)));
+            }
+            int before = OK.size();
+            OK.addAll(batch);
+            assert OK.size() - before == set.addAll(batch);
+            assert OK.size() == set.size();
+            List<String> probes = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                probes.add(word(random.nextInt(20000)));
+            }
+            BitSet present = set.containsAll(probes);
+            for (int i = 0; i < probes.size(); i++) {
+                assert OK.contains(probes.get(i)) == present.get(i);
+            }
+            before = OK.size();
+            OK.removeAll(probes);
+            assert before - OK.size() == set.removeAll(probes);
+            assert OK.size() == set.size();
+        }
+    }
+
+    /**
+     * "Aa" и "BB" дают одинаковый hashCode(), поэтому все 2^10 их склеек попадают в одну корзину
+     */
+    private void collisionTest(ISet<String> set) {
+        List<String> colliding = new ArrayList<>();
+        for (int mask = 0; mask < 1 << 10; mask++) {
+            StringBuilder sb = new StringBuilder();
+            for (int bit = 0; bit < 10; bit++) {
+                sb.append((mask >> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            colliding.add(sb.toString());
+        }
+        Set<String> OK = new HashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            String value = random.nextBoolean() ? colliding.get(random.nextInt(colliding.size())) : word(i);
+            check(OK, set, value, random.nextInt(3) != 0);
+        }
+        for (String value : colliding) {
+            assert OK.contains(value) == set.contains(value);
+        }
+    }
+
+    private void metricsTest(ISet<String> set) throws JMException {
+        if (!(set instanceof Instrumented)) {
+            return;
+        }
+        Instrumented instrumented = (Instrumented) set;
+        assert instrumented.metrics() == null;
+        instrumented.enableMetrics();
+        int operations = 0;
+        for (int i = 0; i < 10000; i++) {
+            set.add(word(i));
+            set.contains(word(random.nextInt(20000)));
+            operations += 2;
+        }
+        SetMetrics metrics = instrumented.metrics();
+        assert Arrays.stream(metrics.getProbeHistogram()).sum() == operations;
+        assert metrics.getResizes() > 0;
+        if (set instanceof ChainHashTable) {
+            //при load factor до 1/2 есть и пустые корзины, и цепочки из одного узла
+            long[] chains = metrics.getChainLengthHistogram();
+            assert chains[0] > 0 && chains[1] > 0;
+        }
+        ObjectName name = instrumented.registerMBean(set.getClass().getSimpleName() + "-" + random.nextInt());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assert (Long) server.getAttribute(name, "Resizes") == metrics.getResizes();
+            long[] probes = (long[]) server.getAttribute(name, "ProbeHistogram");
+            assert Arrays.stream(probes).sum() == operations;
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Упакованные и обычные ключи вперемешку: границы длины, символы не из a-z, пустая строка
+     */
+    private void alphaStringTest(ISet<String> set) {
+        String[] special = {"", "a", "z", "zzzzzzzzzzzzz", "aaaaaaaaaaaaa", "zzzzzzzzzzzzzz", "aaaaaaaaaaaaaa",
+                "A", "a{", "`", "abc1", "привет", "mississippi"};
+        Set<String> OK = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            String value;
+            if (random.nextInt(4) == 0) {
+                value = special[random.nextInt(special.length)];
+            } else {
+                value = word(random.nextInt(500));
+                //часть слов удлиняем за предел упаковки или портим символом не из алфавита
+                int kind = random.nextInt(3);
+                if (kind == 1) {
+                    value = value + "qwertyuiopasd";
+                } else if (kind == 2) {
+                    value = value.toUpperCase();
+                }
+            }
+            check(OK, set, value, random.nextBoolean());
+        }
+    }
+
+    private void intHashSetTest() {
+        Set<Integer> OK = new HashSet<>();
+        IntHashSet set = new IntHashSet();
+        for (int i = 0; i < 100000; i++) {
+            int value = random.nextInt(2000) - 1000;
+            assert OK.contains(value) == set.contains(value);
+            if (random.nextBoolean()) {
+                assert OK.add(value) == set.add(value);
+            } else {
+                assert OK.remove(value) == set.remove(value);
+            }
+            assert OK.size() == set.size();
+            assert OK.contains(value) == set.contains(value);
+        }
+    }
+
+    private void longHashSetTest() {
+        Set<Long> OK = new HashSet<>();
+        LongHashSet set = new LongHashSet();
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextInt(2000) - 1000) * 0x100000001L;
+            assert OK.contains(value) == set.contains(value);
+            if (random.nextBoolean()) {
+                assert OK.add(value) == set.add(value);
+            } else {
+                assert OK.remove(value) == set.remove(value);
+            }
+            assert OK.size() == set.size();
+            assert OK.contains(value) == set.contains(value);
+        }
+    }
+
+    /**
+     * Каждый поток работает со своим диапазоном ключей, поэтому результат каждой операции предсказуем,
+     * а таблица при этом перехешируется под нагрузкой всех потоков сразу.
+     */
+    private void concurrentTest(ISet<Integer> set) throws InterruptedException {
+        int threads = 8;
+        int perThread = 50000;
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = base; i < base + perThread; i++) {
+                        assert set.add(i);
+                        assert set.contains(i);
+                        assert !set.add(i);
+                    }
+                    for (int i = base; i < base + perThread; i += 2) {
+                        assert set.remove(i);
+                        assert !set.contains(i);
+                    }
+                    for (int i = base; i < base + perThread; i++) {
+                        assert set.contains(i) == (i % 2 == 1);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assert errors.isEmpty() : errors;
+        assert set.size() == threads * perThread / 2;
+    }
+
+    private String word(int i) {
+        StringBuilder sb = new StringBuilder();
+        do {
+            sb.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return sb.toString();
+    }
+
+    private void check(Set<String> OK, ISet<String> set, String value, boolean add) {
+        assert OK.contains(value) == set.contains(value);
+        assert OK.size() == set.size();
+        if (add) {
+            assert OK.add(value) == set.add(value);
+        } else {
+            assert OK.remove(value) == set.remove(value);
+        }
+        assert OK.size() == set.size();
+        assert OK.isEmpty() == set.isEmpty();
+        assert OK.contains(value) == set.contains(value);
+    }
+
+    private void checkEmptyAndNull(ISet<String> set) {
+        assert set.isEmpty();
+        assert set.size() == 0;
+        try {
+            set.add(null);
+            assert false;
+        } catch (NullPointerException e) {
+            /* empty */
+        }
+        try {
+            set.remove(null);
+            assert false;
+        } catch (NullPointerException e) {
+            /* empty */
+        }
+        try {
+            set.contains(null);
+            assert false;
+        } catch (NullPointerException e) {
+            /* empty */
+        }
+    }
+
+    public void run(Callable<Void> callable) {
+        try {
+            callable.call();
+        } catch (AssertionError | Exception ae) {
+            ae.printStackTrace();
+            failures.add(ae);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ISet<String> create(String className) {
+        try {
+            Class<?> clazz = Class.forName(className);
+            try {
+                return (ISet<String>) clazz.getConstructor(Comparator.class).newInstance((Object) null);
+            } catch (NoSuchMethodException e) {
+                //специализированные множества строк сравнивают через equals и компаратор не принимают
+                return (ISet<String>) clazz.getConstructor().newInstance();
+            }
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
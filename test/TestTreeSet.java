@@ -2,13 +2,24 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.concurrent.Callable;
 
+import org.junit.Test;
+
 import ru.mail.polis.AVLTree;
+import ru.mail.polis.BPlusTree;
+import ru.mail.polis.CompactRedBlackTree;
+import ru.mail.polis.ConcurrentAVLTree;
+import ru.mail.polis.ConcurrentSkipListSortedSet;
 import ru.mail.polis.ISortedSet;
 import ru.mail.polis.RedBlackTree;
+import ru.mail.polis.SplayTree;
 
 public class TestTreeSet {
 
     private final Random random = new Random();
+    /**
+     * Упавшие проверки: run(callable) печатает и запоминает их, чтобы остальные проверки тоже отработали
+     */
+    private final List<Throwable> failures = new ArrayList<>();
 
     private final Comparator<Integer> EVEN_FIRST = (v1, v2) -> {
         final int c = Integer.compare(v1 % 2, v2 % 2);
@@ -26,6 +37,11 @@ public class TestTreeSet {
         new TestTreeSet().run();
     }
 
+    @Test
+    public void treeSets() {
+        run();
+    }
+
     private void run() {
         run(() -> {
             pre();
@@ -33,6 +49,16 @@ public class TestTreeSet {
         });
         test(AVLTree.class.getName());
         test(RedBlackTree.class.getName());
+        test(BPlusTree.class.getName());
+        test(CompactRedBlackTree.class.getName());
+        test(ConcurrentSkipListSortedSet.class.getName());
+        test(ConcurrentAVLTree.class.getName());
+        test(SplayTree.class.getName());
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError(failures.size() + " checks failed");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
     }
 
     private void pre() {
@@ -195,6 +221,7 @@ public class TestTreeSet {
             callable.call();
         } catch (AssertionError | Exception ae) {
             ae.printStackTrace();
+            failures.add(ae);
         }
     }
 
@@ -1,12 +1,38 @@
 import org.junit.Test;
 import ru.mail.polis.AVLTree;
+import ru.mail.polis.BPlusTree;
+import ru.mail.polis.BinarySearchTree;
+import ru.mail.polis.CompactRedBlackTree;
+import ru.mail.polis.ConcurrentAVLTree;
+import ru.mail.polis.ConcurrentSkipListSortedSet;
+import ru.mail.polis.IOrderStatisticSet;
 import ru.mail.polis.ISortedSet;
+import ru.mail.polis.LongAVLTree;
+import ru.mail.polis.LongRedBlackTree;
+import ru.mail.polis.LongSortedSet;
+import ru.mail.polis.MappedLongSortedSet;
 import ru.mail.polis.RedBlackTree;
+import ru.mail.polis.SetMetrics;
+import ru.mail.polis.SplayTree;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Random;
 import java.util.SortedSet;
+import java.util.Spliterator;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 
 public class testTree {
@@ -30,6 +56,26 @@ public class testTree {
         }
     }
 
+    @Test
+    public void testAVLTreeWideComparator() {
+        Comparator<Integer> wide = (v1, v2) -> 5 * Integer.compare(v1, v2);
+        SortedSet<Integer> OK = new TreeSet<>(wide);
+        ISortedSet<Integer> set = new AVLTree<>(wide);
+        Random r = new Random();
+        for (int i = 0; i < 1000; i++) {
+            int value = r.nextInt(1000);
+            assert OK.add(value) == set.add(value);
+            assert OK.contains(value) == set.contains(value);
+        }
+        assert set.inorderTraverse().equals(new ArrayList<>(OK));
+        for (int i = 0; i < 1000; i++) {
+            int value = r.nextInt(1000);
+            assert OK.remove(value) == set.remove(value);
+            assert OK.contains(value) == set.contains(value);
+            assert OK.size() == set.size();
+        }
+    }
+
     @Test
     public void testRedBlackTree() {
         SortedSet<Integer> OK = new TreeSet<>();
@@ -54,4 +100,908 @@ public class testTree {
             assert OK.last().equals(set.last());
         }
     }
+
+    @Test
+    public void testCompactRedBlackTree() {
+        TreeSet<Integer> OK = new TreeSet<>();
+        ISortedSet<Integer> set = new CompactRedBlackTree<>();
+        Random r = new Random();
+        //удаления чередуются со вставками, чтобы ячейки из списка свободных переиспользовались
+        for (int i = 0; i < 50000; i++) {
+            int value = r.nextInt(3000);
+            if (r.nextBoolean()) {
+                assert OK.remove(value) == set.remove(value);
+            } else {
+                assert OK.add(value) == set.add(value);
+            }
+            assert OK.size() == set.size();
+            if (!OK.isEmpty()) {
+                assert OK.first().equals(set.first()) && OK.last().equals(set.last());
+            }
+        }
+        assert new ArrayList<>(OK).equals(set.inorderTraverse());
+        for (Integer value : new ArrayList<>(OK)) {
+            assert set.remove(value);
+            assert !set.contains(value);
+        }
+        assert set.isEmpty() && !set.iterator().hasNext();
+    }
+
+    @Test
+    public void testSplayTree() {
+        TreeSet<Integer> OK = new TreeSet<>();
+        SplayTree<Integer> set = new SplayTree<>();
+        Random r = new Random();
+        for (int i = 0; i < 50000; i++) {
+            int value = r.nextInt(3000);
+            if (r.nextBoolean()) {
+                assert OK.remove(value) == set.remove(value);
+            } else {
+                assert OK.add(value) == set.add(value);
+            }
+            assert OK.contains(value ^ 1) == set.contains(value ^ 1);
+            assert OK.size() == set.size();
+        }
+        assert new ArrayList<>(OK).equals(set.inorderTraverse());
+        //последовательные вставки вытягивают дерево в путь - обход и поиск не должны уходить в рекурсию
+        SplayTree<Integer> path = new SplayTree<>();
+        int n = 200000;
+        for (int i = 0; i < n; i++) {
+            path.add(i);
+        }
+        assert path.contains(0) && path.first() == 0 && path.last() == n - 1;
+        int expected = 0;
+        for (Integer value : path) {
+            assert value == expected++;
+        }
+        assert expected == n;
+    }
+
+    @Test
+    public void testLazyTraversal() {
+        List<ISortedSet<Integer>> sets = Arrays.asList(new AVLTree<>(), new RedBlackTree<>(), new BinarySearchTree<>(),
+                new ConcurrentSkipListSortedSet<>(), new ConcurrentAVLTree<>(), new BPlusTree<>(), new BPlusTree<>(4),
+                new CompactRedBlackTree<>(), new SplayTree<>());
+        Random r = new Random();
+        for (ISortedSet<Integer> set : sets) {
+            SortedSet<Integer> OK = new TreeSet<>();
+            for (int i = 0; i < 10000; i++) {
+                int value = r.nextInt(100000);
+                OK.add(value);
+                set.add(value);
+            }
+            List<Integer> expected = new ArrayList<>(OK);
+            List<Integer> actual = new ArrayList<>();
+            for (Integer value : set) {
+                actual.add(value);
+            }
+            assert expected.equals(actual);
+            assert expected.equals(set.inorderTraverse());
+            assert expected.equals(set.stream().collect(Collectors.toList()));
+            assert expected.equals(set.parallelStream().collect(Collectors.toList()));
+            Spliterator<Integer> spliterator = set.spliterator();
+            assert spliterator.hasCharacteristics(Spliterator.SORTED);
+            assert spliterator.getComparator() == set.comparator();
+        }
+    }
+
+    @Test
+    public void testSortedInputTraversal() {
+        ISortedSet<Integer> set = new BinarySearchTree<>();
+        for (int i = 0; i < 30000; i++) {
+            set.add(i);
+        }
+        assert set.stream().count() == 30000;
+        assert set.inorderTraverse().get(29999) == 29999;
+    }
+
+    @Test
+    public void testNavigation() {
+        List<ISortedSet<Integer>> sets = Arrays.asList(new AVLTree<>(), new RedBlackTree<>(), new BinarySearchTree<>(),
+                new ConcurrentSkipListSortedSet<>(), new ConcurrentAVLTree<>(), new BPlusTree<>(), new BPlusTree<>(4),
+                new CompactRedBlackTree<>(), new SplayTree<>());
+        Random r = new Random();
+        for (ISortedSet<Integer> set : sets) {
+            TreeSet<Integer> OK = new TreeSet<>();
+            for (int i = 0; i < 1000; i++) {
+                int value = r.nextInt(2000);
+                OK.add(value);
+                set.add(value);
+            }
+            for (int i = 0; i < 1000; i++) {
+                int value = r.nextInt(2200) - 100;
+                assert Objects.equals(OK.floor(value), set.floor(value));
+                assert Objects.equals(OK.ceiling(value), set.ceiling(value));
+                assert Objects.equals(OK.higher(value), set.higher(value));
+                assert Objects.equals(OK.lower(value), set.lower(value));
+            }
+            for (int i = 0; i < 100; i++) {
+                int from = r.nextInt(2000);
+                int to = from + r.nextInt(300);
+                assert new ArrayList<>(OK.subSet(from, to)).equals(set.subSet(from, to).inorderTraverse());
+                assert new ArrayList<>(OK.headSet(to)).equals(set.headSet(to).inorderTraverse());
+                assert new ArrayList<>(OK.tailSet(from)).equals(set.tailSet(from).inorderTraverse());
+                ISortedSet<Integer> sub = set.subSet(from, to);
+                assert OK.subSet(from, to).size() == sub.size();
+                if (!sub.isEmpty()) {
+                    assert OK.subSet(from, to).first().equals(sub.first());
+                    assert OK.subSet(from, to).last().equals(sub.last());
+                }
+                int value = from + r.nextInt(300) - 100;
+                assert Objects.equals(OK.subSet(from, true, to, false).floor(value), sub.floor(value));
+                assert Objects.equals(OK.subSet(from, true, to, false).higher(value), sub.higher(value));
+                int innerFrom = from + r.nextInt(to - from + 1);
+                int innerTo = innerFrom + r.nextInt(to - innerFrom + 1);
+                assert new ArrayList<>(OK.subSet(innerFrom, innerTo))
+                        .equals(sub.subSet(innerFrom, innerTo).inorderTraverse());
+            }
+        }
+    }
+
+    @Test
+    public void testOrderStatistics() {
+        List<IOrderStatisticSet<Integer>> sets = Arrays.asList(new AVLTree<>(), new RedBlackTree<>());
+        Random r = new Random();
+        for (IOrderStatisticSet<Integer> set : sets) {
+            TreeSet<Integer> OK = new TreeSet<>();
+            for (int i = 0; i < 5000; i++) {
+                int value = r.nextInt(1000);
+                if (r.nextInt(3) == 0) {
+                    assert OK.remove(value) == set.remove(value);
+                } else {
+                    assert OK.add(value) == set.add(value);
+                }
+                if (i % 50 == 0) {
+                    List<Integer> expected = new ArrayList<>(OK);
+                    for (int k = 0; k < expected.size(); k++) {
+                        assert expected.get(k).equals(set.select(k));
+                    }
+                    for (int v = -1; v <= 1000; v += 7) {
+                        assert OK.headSet(v).size() == set.rank(v);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFromSorted() {
+        Random r = new Random();
+        for (int n : new int[]{0, 1, 2, 3, 7, 8, 100, 1023, 1024, 5000}) {
+            TreeSet<Integer> OK = new TreeSet<>();
+            while (OK.size() < n) {
+                OK.add(r.nextInt(10 * n));
+            }
+            List<Integer> sorted = new ArrayList<>(OK);
+            List<IOrderStatisticSet<Integer>> sets = Arrays.asList(AVLTree.fromSorted(sorted), RedBlackTree.fromSorted(sorted));
+            for (IOrderStatisticSet<Integer> set : sets) {
+                TreeSet<Integer> expected = new TreeSet<>(OK);
+                assert set.size() == n;
+                assert sorted.equals(set.inorderTraverse());
+                for (int k = 0; k < n; k++) {
+                    assert sorted.get(k).equals(set.select(k));
+                }
+                for (int i = 0; i < 2 * n; i++) {
+                    int value = r.nextInt(10 * n + 1);
+                    if (r.nextBoolean()) {
+                        assert expected.add(value) == set.add(value);
+                    } else {
+                        assert expected.remove(value) == set.remove(value);
+                    }
+                    assert expected.size() == set.size();
+                }
+                assert new ArrayList<>(expected).equals(set.inorderTraverse());
+            }
+        }
+        try {
+            AVLTree.fromSorted(Arrays.asList(1, 3, 2));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            /* empty */
+        }
+    }
+
+    @Test
+    public void testAddAll() {
+        Random r = new Random();
+        AVLTree<Integer> avl = new AVLTree<>();
+        RedBlackTree<Integer> rb = new RedBlackTree<>();
+        TreeSet<Integer> OK = new TreeSet<>();
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Integer> batch = new TreeSet<>();
+            for (int i = 0; i < 500; i++) {
+                batch.add(r.nextInt(5000));
+            }
+            List<Integer> values = round % 2 == 0 ? new ArrayList<>(batch) : new ArrayList<>(batch.descendingSet());
+            int before = OK.size();
+            OK.addAll(values);
+            assert OK.size() - before == avl.addAll(values);
+            assert OK.size() - before == rb.addAll(values);
+            assert new ArrayList<>(OK).equals(avl.inorderTraverse());
+            assert new ArrayList<>(OK).equals(rb.inorderTraverse());
+            for (int i = 0; i < 100; i++) {
+                int value = r.nextInt(5000);
+                boolean removed = OK.remove(value);
+                assert removed == avl.remove(value);
+                assert removed == rb.remove(value);
+            }
+            assert rb.addAll(new ArrayList<>(OK)) == 0;
+            assert OK.size() == rb.size();
+            assert OK.size() == avl.size();
+            assert OK.first().equals(rb.first()) && OK.last().equals(rb.last());
+        }
+    }
+
+    @Test
+    public void testBPlusTree() {
+        Random r = new Random();
+        for (int fanout : new int[]{4, 5, 32, 256}) {
+            TreeSet<Integer> OK = new TreeSet<>();
+            ISortedSet<Integer> set = new BPlusTree<>(fanout);
+            //сначала рост, потом удаления перевешивают вставки, чтобы дерево сжималось до пустого
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 20000; i++) {
+                    int value = r.nextInt(10000);
+                    boolean remove = r.nextInt(10) < (round == 0 ? 3 : round == 1 ? 5 : 8);
+                    if (remove) {
+                        assert OK.remove(value) == set.remove(value);
+                    } else {
+                        assert OK.add(value) == set.add(value);
+                    }
+                    assert OK.size() == set.size();
+                }
+                assert new ArrayList<>(OK).equals(set.inorderTraverse());
+            }
+            for (Integer value : new ArrayList<>(OK)) {
+                assert set.remove(value);
+            }
+            assert set.isEmpty() && set.inorderTraverse().isEmpty();
+            assert set.floor(0) == null && set.ceiling(0) == null;
+        }
+        try {
+            new BPlusTree<Integer>(3);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            /* empty */
+        }
+    }
+
+    @Test
+    public void testLongSortedSets() {
+        Random r = new Random();
+        for (LongSortedSet set : Arrays.asList(new LongAVLTree(), new LongRedBlackTree())) {
+            TreeSet<Long> OK = new TreeSet<>();
+            long[] extremes = {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1};
+            for (long value : extremes) {
+                assert OK.add(value) == set.add(value);
+            }
+            for (int i = 0; i < 30000; i++) {
+                long value = (r.nextInt(4000) - 2000) * 1000000007L;
+                if (r.nextInt(3) == 0) {
+                    assert OK.remove(value) == set.remove(value);
+                } else {
+                    assert OK.add(value) == set.add(value);
+                }
+                assert OK.size() == set.size();
+                assert OK.first() == set.first() && OK.last() == set.last();
+            }
+            long[] expected = OK.stream().mapToLong(Long::longValue).toArray();
+            assert Arrays.equals(expected, set.toArray());
+            for (int i = 0; i < 100; i++) {
+                long from = (r.nextInt(4400) - 2200) * 1000000007L;
+                PrimitiveIterator.OfLong it = set.iterator(from);
+                for (Long value : OK.tailSet(from)) {
+                    assert it.hasNext() && it.nextLong() == value;
+                }
+                assert !it.hasNext();
+            }
+            for (long value : expected) {
+                assert set.contains(value);
+                assert set.remove(value);
+            }
+            assert set.isEmpty() && !set.iterator().hasNext();
+        }
+    }
+
+    @Test
+    public void testMappedLongSortedSet() throws IOException {
+        Path file = Files.createTempFile("mapped-set", ".bin");
+        try {
+            TreeSet<Long> OK = new TreeSet<>();
+            Random r = new Random();
+            try (MappedLongSortedSet set = new MappedLongSortedSet(file)) {
+                for (int i = 0; i < 20000; i++) {
+                    long value = r.nextInt(10000) - 5000L;
+                    if (r.nextInt(3) == 0) {
+                        assert OK.remove(value) == set.remove(value);
+                    } else {
+                        assert OK.add(value) == set.add(value);
+                    }
+                    assert OK.size() == set.size();
+                }
+                assert new ArrayList<>(OK).equals(set.inorderTraverse());
+            }
+            //после переоткрытия дерево то же, и с ним можно продолжать работать
+            try (MappedLongSortedSet set = new MappedLongSortedSet(file)) {
+                assert OK.size() == set.size();
+                assert new ArrayList<>(OK).equals(set.inorderTraverse());
+                assert OK.first().equals(set.first()) && OK.last().equals(set.last());
+                for (int i = 0; i < 1000; i++) {
+                    long value = r.nextInt(12000) - 6000L;
+                    assert OK.contains(value) == set.contains(value);
+                    assert Objects.equals(OK.floor(value), set.floor(value));
+                    assert Objects.equals(OK.higher(value), set.higher(value));
+                    assert new ArrayList<>(OK.tailSet(value)).equals(set.tailSet(value).inorderTraverse());
+                }
+                for (long value = 5000; value < 50000; value++) {
+                    assert OK.add(value) == set.add(value);
+                }
+                assert new ArrayList<>(OK).equals(set.inorderTraverse());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBatchOperations() {
+        Random r = new Random();
+        List<ISortedSet<Integer>> sets = Arrays.asList(new AVLTree<>(), new RedBlackTree<>(), new BPlusTree<>());
+        for (ISortedSet<Integer> set : sets) {
+            TreeSet<Integer> OK = new TreeSet<>();
+            for (int round = 0; round < 20; round++) {
+                //чётные раунды - отсортированные пакеты, нечётные - перемешанные
+                TreeSet<Integer> unique = new TreeSet<>();
+                int batchSize = round % 4 < 2 ? 200 : 5000;
+                while (unique.size() < batchSize) {
+                    unique.add(r.nextInt(20000));
+                }
+                List<Integer> batch = new ArrayList<>(unique);
+                if (round % 2 == 1) {
+                    Collections.shuffle(batch, r);
+                }
+                int before = OK.size();
+                OK.addAll(batch);
+                assert OK.size() - before == set.addAll(batch);
+
+                unique.clear();
+                while (unique.size() < batchSize) {
+                    unique.add(r.nextInt(20000));
+                }
+                List<Integer> probes = new ArrayList<>(unique);
+                if (round % 2 == 1) {
+                    Collections.shuffle(probes, r);
+                }
+                BitSet present = set.containsAll(probes);
+                for (int i = 0; i < probes.size(); i++) {
+                    assert OK.contains(probes.get(i)) == present.get(i);
+                }
+                before = OK.size();
+                OK.removeAll(probes);
+                assert before - OK.size() == set.removeAll(probes);
+                assert OK.size() == set.size();
+                assert new ArrayList<>(OK).equals(set.inorderTraverse());
+            }
+        }
+    }
+
+    @Test
+    public void testSortedBatchIntoLargeTree() {
+        Random r = new Random();
+        List<Integer> initial = new ArrayList<>();
+        for (int i = 0; i < 100000; i += 2) {
+            initial.add(i);
+        }
+        AVLTree<Integer> persistent = AVLTree.persistent();
+        persistent.addAll(initial);
+        AVLTree<Integer> base = AVLTree.fromSorted(initial);
+        //дерево, делящее узлы с base и с результатом объединения
+        AVLTree<Integer> shared = base.union(new AVLTree<>());
+        List<IOrderStatisticSet<Integer>> sets = Arrays.asList(AVLTree.fromSorted(initial),
+                RedBlackTree.fromSorted(initial), persistent, shared);
+        for (IOrderStatisticSet<Integer> set : sets) {
+            TreeSet<Integer> OK = new TreeSet<>(initial);
+            ISortedSet<Integer> snapshot = set == persistent ? persistent.snapshot() : null;
+            //пакеты много меньше дерева: вставка и удаление пальцем или через split / join
+            for (int batchSize : new int[]{1, 10, 1000, 20000}) {
+                TreeSet<Integer> unique = new TreeSet<>();
+                while (unique.size() < batchSize) {
+                    unique.add(r.nextInt(110000) - 5000);
+                }
+                int before = OK.size();
+                OK.addAll(unique);
+                assert OK.size() - before == set.addAll(new ArrayList<>(unique));
+                assert new ArrayList<>(OK).equals(set.inorderTraverse());
+
+                unique.clear();
+                while (unique.size() < batchSize) {
+                    unique.add(r.nextInt(110000) - 5000);
+                }
+                before = OK.size();
+                OK.removeAll(unique);
+                assert before - OK.size() == set.removeAll(new ArrayList<>(unique));
+                assert OK.size() == set.size();
+                assert new ArrayList<>(OK).equals(set.inorderTraverse());
+                for (int k = 0; k < 100; k++) {
+                    int i = r.nextInt(OK.size());
+                    Integer value = set.select(i);
+                    assert set.rank(value) == i && OK.headSet(value).size() == i;
+                }
+            }
+            //дальше дерево меняется как обычно
+            for (int k = 0; k < 2000; k++) {
+                int value = r.nextInt(110000);
+                assert OK.add(value) == set.add(value);
+                value = r.nextInt(110000);
+                assert OK.remove(value) == set.remove(value);
+            }
+            assert new ArrayList<>(OK).equals(set.inorderTraverse());
+            assert snapshot == null || initial.equals(snapshot.inorderTraverse());
+        }
+        assert initial.equals(base.inorderTraverse());
+    }
+
+    @Test
+    public void testSetAlgebra() {
+        Random r = new Random();
+        //малые, несбалансированные по размеру и большие (параллельная ветка) входы, включая пустые
+        int[][] sizes = {{0, 0}, {0, 100}, {100, 0}, {1, 1000}, {1000, 50}, {3000, 3000}, {20000, 9000}};
+        for (int[] size : sizes) {
+            TreeSet<Integer> a = new TreeSet<>();
+            TreeSet<Integer> b = new TreeSet<>();
+            int bound = 2 * (size[0] + size[1]) + 1;
+            while (a.size() < size[0]) {
+                a.add(r.nextInt(bound));
+            }
+            while (b.size() < size[1]) {
+                b.add(r.nextInt(bound));
+            }
+            TreeSet<Integer> union = new TreeSet<>(a);
+            union.addAll(b);
+            TreeSet<Integer> intersection = new TreeSet<>(a);
+            intersection.retainAll(b);
+            TreeSet<Integer> difference = new TreeSet<>(a);
+            difference.removeAll(b);
+
+            AVLTree<Integer> avlA = new AVLTree<>();
+            AVLTree<Integer> avlB = new AVLTree<>();
+            RedBlackTree<Integer> rbA = new RedBlackTree<>();
+            RedBlackTree<Integer> rbB = new RedBlackTree<>();
+            shuffled(a, r).forEach(v -> { avlA.add(v); rbA.add(v); });
+            shuffled(b, r).forEach(v -> { avlB.add(v); rbB.add(v); });
+
+            checkAlgebraResult(union, avlA.union(avlB), r);
+            checkAlgebraResult(intersection, avlA.intersect(avlB), r);
+            checkAlgebraResult(difference, avlA.difference(avlB), r);
+            checkAlgebraResult(union, rbA.union(rbB), r);
+            checkAlgebraResult(intersection, rbA.intersect(rbB), r);
+            checkAlgebraResult(difference, rbA.difference(rbB), r);
+
+            //аргументы не изменились
+            assert new ArrayList<>(a).equals(avlA.inorderTraverse()) && new ArrayList<>(a).equals(rbA.inorderTraverse());
+            assert new ArrayList<>(b).equals(avlB.inorderTraverse()) && new ArrayList<>(b).equals(rbB.inorderTraverse());
+        }
+    }
+
+    @Test
+    public void testSetAlgebraSharedSubtrees() {
+        Random r = new Random();
+        //большое дерево с маленьким: почти все поддеревья результата общие с аргументами
+        TreeSet<Integer> a = new TreeSet<>();
+        TreeSet<Integer> b = new TreeSet<>();
+        while (a.size() < 20000) {
+            a.add(r.nextInt(100000));
+        }
+        while (b.size() < 30) {
+            b.add(r.nextInt(100000));
+        }
+        AVLTree<Integer> avlA = new AVLTree<>();
+        AVLTree<Integer> avlB = new AVLTree<>();
+        shuffled(a, r).forEach(avlA::add);
+        shuffled(b, r).forEach(avlB::add);
+        List<AVLTree<Integer>> results = Arrays.asList(avlA.union(avlB), avlA.intersect(avlB), avlA.difference(avlB),
+                avlB.difference(avlA));
+        List<TreeSet<Integer>> expected = new ArrayList<>();
+        for (AVLTree<Integer> result : results) {
+            expected.add(new TreeSet<>(result.inorderTraverse()));
+        }
+        //изменения аргументов не видны в результатах
+        for (int k = 0; k < 20000; k++) {
+            int value = r.nextInt(100000);
+            TreeSet<Integer> set = r.nextBoolean() ? a : b;
+            AVLTree<Integer> tree = set == a ? avlA : avlB;
+            if (r.nextBoolean()) {
+                assert set.add(value) == tree.add(value);
+            } else {
+                Integer existing = set.ceiling(value);
+                if (existing != null) {
+                    value = existing;
+                }
+                assert set.remove(value) == tree.remove(value);
+            }
+        }
+        assert new ArrayList<>(a).equals(avlA.inorderTraverse());
+        assert new ArrayList<>(b).equals(avlB.inorderTraverse());
+        for (int i = 0; i < results.size(); i++) {
+            assert new ArrayList<>(expected.get(i)).equals(results.get(i).inorderTraverse());
+            //и наоборот: результаты меняются, не задевая аргументы и друг друга
+            checkAlgebraResult(expected.get(i), results.get(i), r);
+        }
+        assert new ArrayList<>(a).equals(avlA.inorderTraverse());
+        assert new ArrayList<>(b).equals(avlB.inorderTraverse());
+        //результат от результатов тоже делит с ними узлы
+        List<Integer> left = results.get(0).inorderTraverse();
+        List<Integer> right = results.get(2).inorderTraverse();
+        TreeSet<Integer> twice = new TreeSet<>(left);
+        twice.addAll(right);
+        checkAlgebraResult(twice, results.get(0).union(results.get(2)), r);
+        assert left.equals(results.get(0).inorderTraverse()) && right.equals(results.get(2).inorderTraverse());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetAlgebraDifferentComparators() {
+        new AVLTree<Integer>().union(new AVLTree<>(Comparator.<Integer>reverseOrder()));
+    }
+
+    private List<Integer> shuffled(Collection<Integer> values, Random r) {
+        List<Integer> result = new ArrayList<>(values);
+        Collections.shuffle(result, r);
+        return result;
+    }
+
+    private void checkAlgebraResult(SortedSet<Integer> expected, IOrderStatisticSet<Integer> set, Random r) {
+        TreeSet<Integer> OK = new TreeSet<>(expected);
+        assert OK.size() == set.size();
+        assert new ArrayList<>(OK).equals(set.inorderTraverse());
+        int i = 0;
+        for (Integer value : OK) {
+            assert value.equals(set.select(i));
+            assert set.rank(value) == i;
+            i++;
+        }
+        //результат - обычное дерево, его можно менять дальше
+        for (int k = 0; k < 500; k++) {
+            int value = r.nextInt(2 * OK.size() + 10);
+            if (r.nextBoolean()) {
+                assert OK.add(value) == set.add(value);
+            } else {
+                assert OK.remove(value) == set.remove(value);
+            }
+        }
+        assert new ArrayList<>(OK).equals(set.inorderTraverse());
+    }
+
+    @Test
+    public void testPersistentAVLTree() {
+        Random r = new Random();
+        AVLTree<Integer> tree = AVLTree.persistent();
+        TreeSet<Integer> OK = new TreeSet<>();
+        List<ISortedSet<Integer>> snapshots = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int value = r.nextInt(5000);
+            if (r.nextInt(3) == 0) {
+                assert OK.remove(value) == tree.remove(value);
+            } else {
+                assert OK.add(value) == tree.add(value);
+            }
+            if (i % 1000 == 0) {
+                snapshots.add(tree.snapshot());
+                expected.add(new ArrayList<>(OK));
+            }
+        }
+        assert new ArrayList<>(OK).equals(tree.inorderTraverse());
+        //снимки не видят последующих изменений
+        for (int i = 0; i < snapshots.size(); i++) {
+            ISortedSet<Integer> snapshot = snapshots.get(i);
+            List<Integer> values = expected.get(i);
+            assert values.size() == snapshot.size();
+            assert values.equals(snapshot.inorderTraverse());
+            for (Integer value : values) {
+                assert snapshot.contains(value);
+            }
+        }
+        ISortedSet<Integer> snapshot = snapshots.get(snapshots.size() - 1);
+        for (Runnable write : Arrays.<Runnable>asList(() -> snapshot.add(-1), () -> snapshot.remove(snapshot.first()),
+                () -> snapshot.addAll(Arrays.asList(1, 2)), () -> snapshot.headSet(100).add(-1))) {
+            try {
+                write.run();
+                assert false;
+            } catch (UnsupportedOperationException e) {
+                //снимок только для чтения
+            }
+        }
+    }
+
+    @Test
+    public void testPersistentAVLTreeSnapshotReaders() throws InterruptedException {
+        AVLTree<Integer> tree = AVLTree.persistent();
+        int n = 20000;
+        for (int i = 0; i < n; i++) {
+            tree.add(i);
+        }
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            ISortedSet<Integer> snapshot = tree.snapshot();
+            readers.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 20; round++) {
+                        int expected = 0;
+                        for (Integer value : snapshot) {
+                            assert value == expected++;
+                        }
+                        assert expected == n;
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        Random r = new Random();
+        for (int i = 0; i < 200000; i++) {
+            int value = r.nextInt(2 * n);
+            if (r.nextBoolean()) {
+                tree.add(value);
+            } else {
+                tree.remove(value);
+            }
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assert errors.isEmpty() : errors;
+    }
+
+    @Test
+    public void testMetrics() {
+        AVLTree<Integer> avl = new AVLTree<>();
+        RedBlackTree<Integer> rb = new RedBlackTree<>();
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>();
+        assert avl.metrics() == null && rb.metrics() == null && bst.metrics() == null;
+        avl.enableMetrics();
+        rb.enableMetrics();
+        bst.enableMetrics();
+        int n = 1000;
+        //отсортированный вход: деревья всё время поворачиваются, а BST вырождается в список
+        for (int i = 0; i < n; i++) {
+            avl.add(i);
+            rb.add(i);
+            bst.add(i);
+        }
+        assert avl.metrics().getRotations() > n / 2;
+        assert rb.metrics().getRotations() > 0 && rb.metrics().getRecolors() > 0;
+        SetMetrics depth = bst.metrics();
+        assert depth.getMaxDepth() == n - 1;
+        assert depth.getAverageDepth() == (n - 1) / 2.0;
+        long rotations = rb.metrics().getRotations();
+        for (int i = 0; i < n; i += 2) {
+            rb.remove(i);
+        }
+        assert rb.metrics().getRotations() > rotations;
+        avl.disableMetrics();
+        assert avl.metrics() == null;
+    }
+
+    @Test
+    public void testScapegoatBinarySearchTree() {
+        BinarySearchTree<Integer> tree = BinarySearchTree.scapegoat();
+        tree.enableMetrics();
+        int n = 100000;
+        //на отсортированном входе обычное BST стало бы списком
+        for (int i = 0; i < n; i++) {
+            assert tree.add(i);
+        }
+        double maxDepth = Math.log(n) / Math.log(1 / 0.7);
+        assert tree.metrics().getMaxDepth() <= maxDepth;
+        Random r = new Random();
+        TreeSet<Integer> OK = new TreeSet<>();
+        for (int i = 0; i < n; i++) {
+            OK.add(i);
+        }
+        for (int i = 0; i < 200000; i++) {
+            int value = r.nextInt(2 * n);
+            if (r.nextInt(3) == 0) {
+                assert OK.add(value) == tree.add(value);
+            } else {
+                assert OK.remove(value) == tree.remove(value);
+            }
+        }
+        assert OK.size() == tree.size();
+        assert new ArrayList<>(OK).equals(tree.inorderTraverse());
+        assert tree.metrics().getMaxDepth() <= Math.log(Math.max(OK.size(), 2)) / Math.log(1 / 0.7) + 1;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScapegoatInvalidAlpha() {
+        BinarySearchTree.scapegoat(0.5, null);
+    }
+
+    @Test
+    public void testConcurrentSkipList() throws InterruptedException {
+        concurrentAddRemove(new ConcurrentSkipListSortedSet<>());
+    }
+
+    @Test
+    public void testConcurrentAVLTree() throws InterruptedException {
+        concurrentAddRemove(new ConcurrentAVLTree<>());
+    }
+
+    @Test
+    public void testConcurrentAVLTreeOptimisticReads() throws InterruptedException {
+        ISortedSet<Integer> set = new ConcurrentAVLTree<>();
+        int n = 20000;
+        //чётные ключи не меняются, нечётные постоянно добавляются и удаляются писателями
+        for (int i = 0; i < n; i += 2) {
+            set.add(i);
+        }
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 8; t++) {
+            boolean writer = t < 2;
+            long seed = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    Random r = new Random(seed);
+                    for (int i = 0; i < 200000; i++) {
+                        int value = r.nextInt(n);
+                        if (writer) {
+                            value |= 1;
+                            if (r.nextBoolean()) {
+                                set.add(value);
+                            } else {
+                                set.remove(value);
+                            }
+                        } else {
+                            int even = value & ~1;
+                            assert set.contains(even);
+                            assert set.first() == 0;
+                            assert set.last() >= n - 2;
+                            assert set.floor(even) == even && set.ceiling(even) == even;
+                            Integer higher = set.higher(even);
+                            assert even == n - 2 ? higher == null || higher == n - 1 : higher == even + 1 || higher == even + 2;
+                            Integer lower = set.lower(even);
+                            assert even == 0 ? lower == null : lower == even - 1 || lower == even - 2;
+                            if (i % 20000 == 0) {
+                                //обход без блокировок идёт строго по возрастанию и не теряет неизменные ключи
+                                int expectedEven = 0;
+                                int prev = -1;
+                                for (int key : set) {
+                                    assert key > prev;
+                                    prev = key;
+                                    if ((key & 1) == 0) {
+                                        assert key == expectedEven;
+                                        expectedEven += 2;
+                                    }
+                                }
+                                assert expectedEven == n;
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assert errors.isEmpty() : errors;
+        List<Integer> actual = set.inorderTraverse();
+        assert actual.size() == set.size();
+        for (int i = 0; i < n; i += 2) {
+            assert set.contains(i);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentAVLTreeReadsDuringUnlink() throws InterruptedException {
+        ISortedSet<Integer> set = new ConcurrentAVLTree<>();
+        int n = 4000;
+        //писатель трогает все ключи между неизменными -1 и n: удаляются и узлы с двумя детьми,
+        //они остаются маршрутными и вырезаются позже, пока читатели стоят на них
+        set.add(-1);
+        set.add(n);
+        for (int i = 0; i < n; i += 2) {
+            set.add(i);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread writer = new Thread(() -> {
+            Random r = new Random(0);
+            while (!done.get()) {
+                int value = r.nextInt(n);
+                if (r.nextBoolean()) {
+                    set.add(value);
+                } else {
+                    set.remove(value);
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long seed = t;
+            Thread reader = new Thread(() -> {
+                try {
+                    Random r = new Random(seed);
+                    for (int i = 0; i < 200000; i++) {
+                        int value = r.nextInt(n);
+                        assert set.first() == -1 && set.last() == n;
+                        assert set.floor(value) <= value && set.ceiling(value) >= value;
+                        assert set.lower(value) < value && set.higher(value) > value;
+                        if (i % 2000 == 0) {
+                            int prev = -2;
+                            for (int key : set) {
+                                assert key > prev;
+                                prev = key;
+                            }
+                            assert prev == n;
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            readers.add(reader);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        done.set(true);
+        writer.join();
+        assert errors.isEmpty() : errors;
+        assert set.inorderTraverse().size() == set.size();
+    }
+
+    private void concurrentAddRemove(ISortedSet<Integer> set) throws InterruptedException {
+        int threads = 8;
+        int perThread = 20000;
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads; t++) {
+            int shift = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    //ключи потоков перемешаны между собой: i * threads + shift
+                    for (int i = 0; i < perThread; i++) {
+                        int value = i * threads + shift;
+                        assert set.add(value);
+                        assert !set.add(value);
+                        assert set.contains(value);
+                    }
+                    for (int i = 0; i < perThread; i += 2) {
+                        int value = i * threads + shift;
+                        assert set.remove(value);
+                        assert !set.remove(value);
+                        assert !set.contains(value);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assert errors.isEmpty() : errors;
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 1; i < perThread; i += 2) {
+            for (int t = 0; t < threads; t++) {
+                expected.add(i * threads + t);
+            }
+        }
+        assert set.size() == expected.size();
+        assert expected.equals(set.inorderTraverse());
+        assert set.first().equals(expected.get(0));
+        assert set.last().equals(expected.get(expected.size() - 1));
+    }
 }